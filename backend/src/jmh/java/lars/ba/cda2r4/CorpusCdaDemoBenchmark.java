@@ -0,0 +1,73 @@
+package lars.ba.cda2r4;
+
+import lars.ba.common.Corpus;
+import lars.ba.common.ParserFactories;
+import org.eclipse.emf.ecore.EPackage;
+import org.hl7.fhir.r4.model.Bundle;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+import org.openhealthtools.mdht.uml.cda.CDAPackage;
+import org.openhealthtools.mdht.uml.cda.consol.ConsolPackage;
+import org.openhealthtools.mdht.uml.cda.util.CDAUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tr.com.srdc.cda2fhir.transform.CCDTransformerImpl;
+import tr.com.srdc.cda2fhir.util.IdGeneratorEnum;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Der MDHT/cda2fhir-Weg mit Korpus-Dokumenten: {@link CdaDemo#getClinicalDocument} (Laden mit MDHT,
+ * Umwandeln, If-None-Exist setzen) und das Kodieren des fertigen Bundles mit dem HAPI-JSON-Parser.
+ * <p>
+ * Die MDHT-Pakete werden im Setup geladen wie in {@link MdhtInitializer}; der Benchmark-Thread ist
+ * der einzige Thread und besitzt den Transformer wie ein Thread aus {@link MdhtWorkerPool}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusCdaDemoBenchmark {
+
+    @Param({Corpus.SMALL, Corpus.MEDIAN, Corpus.LARGEST})
+    public String document;
+
+    private CdaDemo cdaDemo;
+    private CCDTransformerImpl transformer;
+    private FileUpload upload;
+    private Bundle bundle;
+
+    @Setup
+    public void setup() throws Exception {
+        Thread.currentThread().setContextClassLoader(CDAUtil.class.getClassLoader());
+        CDAUtil.loadPackages();
+        ConsolPackage.eINSTANCE.eClass();
+        EPackage.Registry.INSTANCE.put(CDAPackage.eNS_URI, CDAPackage.eINSTANCE);
+        EPackage.Registry.INSTANCE.put(ConsolPackage.eNS_URI, ConsolPackage.eINSTANCE);
+
+        cdaDemo = new CdaDemo(new ParserFactories());
+        transformer = new CCDTransformerImpl(IdGeneratorEnum.COUNTER);
+        upload = Corpus.upload(Corpus.document(document));
+        bundle = cdaDemo.getClinicalDocument(upload, transformer);
+    }
+
+    @Benchmark
+    public Bundle getClinicalDocument() throws Exception {
+        return cdaDemo.getClinicalDocument(upload, transformer);
+    }
+
+    @Benchmark
+    public byte[] encodeBundle() {
+        return cdaDemo.encodeBundle(bundle);
+    }
+}
@@ -0,0 +1,99 @@
+package lars.ba.common;
+
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Dokumente aus dem Synthea-Korpus unter {@code dateien/ccda} für die Benchmarks.
+ * <p>
+ * Die Benchmarks nehmen per {@code @Param} "small", "median" oder "largest": das kleinste, das
+ * mittlere und das größte Dokument nach Dateigröße. Das Verzeichnis lässt sich mit
+ * {@code -Dcorpus.dir=...} ändern (relativ zu {@code backend}, von dort startet exec:exec).
+ */
+public final class Corpus {
+
+    public static final String SMALL = "small";
+    public static final String MEDIAN = "median";
+    public static final String LARGEST = "largest";
+
+    private Corpus() {
+    }
+
+    public static Path document(String size) {
+        List<Path> documents = documentsBySize();
+        return switch (size) {
+            case SMALL -> documents.get(0);
+            case MEDIAN -> documents.get(documents.size() / 2);
+            case LARGEST -> documents.get(documents.size() - 1);
+            default -> throw new IllegalArgumentException("Unbekannte Dokumentgröße: " + size);
+        };
+    }
+
+    private static List<Path> documentsBySize() {
+        Path directory = Path.of(System.getProperty("corpus.dir", "../dateien/ccda"));
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> documents = files
+                    .filter(file -> file.getFileName().toString().endsWith(".xml"))
+                    .sorted(Comparator.comparingLong(Corpus::size).thenComparing(Path::toString))
+                    .toList();
+            if (documents.isEmpty()) {
+                throw new IllegalStateException("Keine XML-Dateien in " + directory.toAbsolutePath());
+            }
+            return documents;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Das Dokument als Upload, wie es die Endpunkte von RESTEasy bekommen.
+     */
+    public static FileUpload upload(Path document) {
+        return new FileUpload() {
+            @Override
+            public String name() {
+                return "files";
+            }
+
+            @Override
+            public Path filePath() {
+                return document;
+            }
+
+            @Override
+            public String fileName() {
+                return document.getFileName().toString();
+            }
+
+            @Override
+            public long size() {
+                return Corpus.size(document);
+            }
+
+            @Override
+            public String contentType() {
+                return "application/xml";
+            }
+
+            @Override
+            public String charSet() {
+                return "UTF-8";
+            }
+        };
+    }
+}
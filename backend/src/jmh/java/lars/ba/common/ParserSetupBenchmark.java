@@ -0,0 +1,94 @@
+package lars.ba.common;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht die Einrichtung pro Aufruf (bisheriges Verhalten) mit den geteilten Instanzen aus
+ * {@link ParserFactories}. Jede Methode erledigt die gleiche kleine Arbeit, der Unterschied ist
+ * also der Setup-Aufwand pro Request bzw. Datei.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserSetupBenchmark {
+
+    private ParserFactories parserFactories;
+    private Map<String, Object> row;
+    private Patient patient;
+    private byte[] cda;
+
+    @Setup
+    public void setup() throws Exception {
+        parserFactories = new ParserFactories();
+        row = Map.of("auftrags_id", "a1", "erstellungsdatum", LocalDateTime.of(2025, 1, 1, 12, 0));
+        patient = new Patient();
+        patient.addName().setFamily("Muster").addGiven("Max");
+        patient.setGender(Enumerations.AdministrativeGender.MALE);
+        try (InputStream in = ParserSetupBenchmark.class.getResourceAsStream("/cda.xml")) {
+            cda = in.readAllBytes();
+        }
+        // FhirContext vorab erzeugen, damit nicht der erste Aufruf gemessen wird
+        parserFactories.fhirContext();
+    }
+
+    @Benchmark
+    public String objectMapperPerCall() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        return objectMapper.writeValueAsString(row);
+    }
+
+    @Benchmark
+    public String objectMapperShared() throws Exception {
+        return parserFactories.objectMapper().writeValueAsString(row);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String fhirContextPerCall() {
+        return FhirContext.forR4().newJsonParser().encodeResourceToString(patient);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String fhirContextShared() {
+        return parserFactories.fhirJsonParser().encodeResourceToString(patient);
+    }
+
+    @Benchmark
+    public Document documentBuilderPerCall() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(cda));
+    }
+
+    @Benchmark
+    public Document documentBuilderShared() throws Exception {
+        return parserFactories.documentBuilder().parse(new ByteArrayInputStream(cda));
+    }
+}
@@ -0,0 +1,90 @@
+package lars.ba.own.extraction;
+
+import lars.ba.common.Corpus;
+import lars.ba.common.ParserFactories;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraktion ganzer Korpus-Dokumente: {@link CDAProcessor#processCDAFile(List)} im STREAM- und
+ * DOM-Modus sowie das Zerlegen aller entries mit {@link EntryFlattener} (ehemals
+ * processElement/flattenDict) auf einem bereits geparsten Dokument.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusExtractionBenchmark {
+
+    @Param({Corpus.SMALL, Corpus.MEDIAN, Corpus.LARGEST})
+    public String document;
+
+    private final ParserFactories parserFactories = new ParserFactories();
+    private FileUpload upload;
+    private List<Element> entries;
+
+    @Setup
+    public void setup() throws Exception {
+        upload = Corpus.upload(Corpus.document(document));
+
+        Document doc;
+        try (InputStream in = Files.newInputStream(upload.uploadedFile())) {
+            doc = parserFactories.documentBuilder().parse(in);
+        }
+        entries = new ArrayList<>();
+        for (Element section : CDAPathPlans.SECTIONS.all(doc.getDocumentElement())) {
+            for (Node child = section.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && "entry".equals(child.getLocalName())) {
+                    entries.add((Element) child);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public DataFrames processStream() throws Exception {
+        return process(CDAProcessor.ExtractionMode.STREAM);
+    }
+
+    @Benchmark
+    public DataFrames processDom() throws Exception {
+        return process(CDAProcessor.ExtractionMode.DOM);
+    }
+
+    private DataFrames process(CDAProcessor.ExtractionMode mode) throws Exception {
+        CDAProcessor processor = new CDAProcessor(mode, parserFactories);
+        processor.createAuftrag("Benchmark");
+        processor.processCDAFile(List.of(upload));
+        return processor.getDataFrames();
+    }
+
+    @Benchmark
+    public void flattenEntries(Blackhole blackhole) {
+        EntryFlattener flattener = new EntryFlattener();
+        for (Element entry : entries) {
+            flattener.flatten(entry, (keyPath, value) -> blackhole.consume(value));
+        }
+    }
+}
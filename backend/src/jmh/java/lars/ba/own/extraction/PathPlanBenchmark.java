@@ -0,0 +1,119 @@
+package lars.ba.own.extraction;
+
+import lars.ba.common.ParserFactories;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Patienten- und Autorenfelder aus cda.xml: vorkompilierte {@link PathPlan}s gegen das frühere
+ * {@code safeExtract}, das den Pfad bei jedem Aufruf zerlegt und mit getElementsByTagNameNS sucht.
+ * <p>
+ * Das alte safeExtract brach bei dem führenden "./" der Mappings sofort ab (und lieferte ""). Damit
+ * der Vergleich die eigentliche Navigation misst, bekommt es die Pfade hier ohne "./".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathPlanBenchmark {
+
+    private static final List<String[]> PATIENT_PATHS = List.of(
+            new String[]{"cda:patient/cda:name/cda:given", null},
+            new String[]{"cda:patient/cda:name/cda:family", null},
+            new String[]{"cda:patient/cda:administrativeGenderCode", "code"},
+            new String[]{"cda:patient/cda:birthTime", "value"},
+            new String[]{"cda:id", "extension"},
+            new String[]{"cda:id", "root"});
+
+    private static final List<String[]> AUTHOR_PATHS = List.of(
+            new String[]{"cda:assignedAuthor/cda:assignedPerson/cda:name/cda:given", null},
+            new String[]{"cda:assignedAuthor/cda:assignedPerson/cda:name/cda:family", null},
+            new String[]{"cda:assignedAuthor/cda:representedOrganization/cda:name", null});
+
+    private Element patientRole;
+    private Element author;
+
+    @Setup
+    public void setup() throws Exception {
+        Document doc;
+        try (InputStream in = PathPlanBenchmark.class.getResourceAsStream("/cda.xml")) {
+            doc = new ParserFactories().documentBuilder().parse(in);
+        }
+        patientRole = CDAPathPlans.PATIENT_ROLE.first(doc.getDocumentElement());
+        author = CDAPathPlans.AUTHOR.first(doc.getDocumentElement());
+    }
+
+    @Benchmark
+    public void compiledPlans(Blackhole blackhole) {
+        blackhole.consume(CDAPathPlans.PATIENT_GIVEN.extract(patientRole, null));
+        blackhole.consume(CDAPathPlans.PATIENT_FAMILY.extract(patientRole, null));
+        blackhole.consume(CDAPathPlans.PATIENT_GENDER.extract(patientRole, "code"));
+        blackhole.consume(CDAPathPlans.PATIENT_BIRTH_TIME.extract(patientRole, "value"));
+        blackhole.consume(CDAPathPlans.PATIENT_ID.extract(patientRole, "extension"));
+        blackhole.consume(CDAPathPlans.PATIENT_ID_ROOT.extract(patientRole, "root"));
+        blackhole.consume(CDAPathPlans.AUTHOR_GIVEN.extract(author, null));
+        blackhole.consume(CDAPathPlans.AUTHOR_FAMILY.extract(author, null));
+        blackhole.consume(CDAPathPlans.AUTHOR_ORGANIZATION.extract(author, null));
+    }
+
+    @Benchmark
+    public void legacySafeExtract(Blackhole blackhole) {
+        for (String[] path : PATIENT_PATHS) {
+            blackhole.consume(safeExtract(patientRole, path[0], path[1]));
+        }
+        for (String[] path : AUTHOR_PATHS) {
+            blackhole.consume(safeExtract(author, path[0], path[1]));
+        }
+    }
+
+    /**
+     * Unverändert aus dem früheren CDAProcessor übernommen.
+     */
+    private static String safeExtract(Element element, String path, String attr) {
+        try {
+            String[] parts = path.split("/");
+            Element current = element;
+
+            for (String part : parts) {
+                if (current == null) return "";
+
+                if (part.contains(":")) {
+                    String[] nsAndName = part.split(":");
+                    NodeList nodes = current.getElementsByTagNameNS(CDAConfig.NS.get(nsAndName[0]), nsAndName[1]);
+                    if (nodes.getLength() == 0) return "";
+                    current = (Element) nodes.item(0);
+                } else {
+                    NodeList nodes = current.getElementsByTagName(part);
+                    if (nodes.getLength() == 0) return "";
+                    current = (Element) nodes.item(0);
+                }
+            }
+
+            if (attr != null) {
+                return current.getAttribute(attr).trim();
+            } else {
+                return current.getTextContent().trim();
+            }
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
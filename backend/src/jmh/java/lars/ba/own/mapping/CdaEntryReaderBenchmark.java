@@ -0,0 +1,140 @@
+package lars.ba.own.mapping;
+
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.smallrye.config.source.yaml.YamlConfigSource;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Einlesen breiter Einträge (Vitalparameter mit vielen werte-Zeilen): {@link CdaEntryReader} direkt
+ * vom Parser in die Slots gegen das frühere readArray() mit createValueMap (HashMap und replaceAll).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CdaEntryReaderBenchmark {
+
+    private static final int ENTRIES = 20;
+
+    @Param({"50", "250"})
+    public int werteProEintrag;
+
+    private MappingPlan mappingPlan;
+    private byte[] cdaJson;
+
+    @Setup
+    public void setup() throws Exception {
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .withSources(new YamlConfigSource(CdaEntryReaderBenchmark.class.getResource("/application.yaml")))
+                .withMapping(CdaFhirMappingConfig.class)
+                .build();
+        mappingPlan = MappingPlan.compile(config.getConfigMapping(CdaFhirMappingConfig.class));
+
+        JsonArrayBuilder entries = Json.createArrayBuilder();
+        for (int e = 0; e < ENTRIES; e++) {
+            JsonArrayBuilder werte = Json.createArrayBuilder();
+            werte.add(row("observation.code@code", "8302-2"));
+            werte.add(row("observation.code@codeSystem", "2.16.840.1.113883.6.1"));
+            werte.add(row("observation.code@displayName", "Body Height"));
+            werte.add(row("observation.value@type", "PQ"));
+            werte.add(row("observation.value@value", "154.78809861996862"));
+            werte.add(row("observation.value@unit", "cm"));
+            // die übrigen Zeilen wie bei einem organizer mit vielen component-Einträgen
+            for (int i = 6; i < werteProEintrag; i++) {
+                werte.add(row("organizer.component[" + i / 8 + "].observation.templateId@root",
+                        "2.16.840.1.113883.10.20.22.4.27"));
+            }
+            entries.add(Json.createObjectBuilder()
+                    .add("inhalt_id", "inhalt-" + e)
+                    .add("inhalt", Json.createObjectBuilder().add("section_code", "8716-3"))
+                    .add("werte", werte));
+        }
+        cdaJson = entries.build().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void entryReader(Blackhole blackhole) {
+        try (JsonParser parser = Json.createParser(new ByteArrayInputStream(cdaJson))) {
+            parser.next();
+            CdaEntryReader reader = new CdaEntryReader(parser, mappingPlan);
+            CdaEntry entry;
+            while ((entry = reader.next()) != null) {
+                blackhole.consume(entry.values.get(mappingPlan.vitalSignValue));
+            }
+        }
+    }
+
+    @Benchmark
+    public void legacyValueMap(Blackhole blackhole) {
+        JsonArray cdaEntries;
+        try (JsonReader jsonReader = Json.createReader(new ByteArrayInputStream(cdaJson))) {
+            cdaEntries = jsonReader.readArray();
+        }
+        for (JsonValue entryValue : cdaEntries) {
+            JsonObject entry = entryValue.asJsonObject();
+            blackhole.consume(entry.getJsonObject("inhalt").getString("section_code"));
+            blackhole.consume(createValueMap(entry).get("observation.value@value"));
+        }
+    }
+
+    private static JsonObject row(String keyPath, String value) {
+        return Json.createObjectBuilder()
+                .add("wert_id", "c47ba524-486b-4671-bc21-01dfed7e01d2")
+                .add("key_path", keyPath)
+                .add("value", value)
+                .build();
+    }
+
+    /**
+     * Unverändert aus dem früheren CdaToFhirConverter übernommen.
+     */
+    private static Map<String, String> createValueMap(JsonObject entry) {
+        Map<String, String> valueMap = new HashMap<>();
+
+        if (entry.containsKey("werte") && entry.get("werte").getValueType() == JsonValue.ValueType.ARRAY) {
+            JsonArray werteArray = entry.getJsonArray("werte");
+
+            for (int i = 0; i < werteArray.size(); i++) {
+                if (werteArray.get(i).getValueType() == JsonValue.ValueType.OBJECT) {
+                    JsonObject werteObj = werteArray.get(i).asJsonObject();
+
+                    if (werteObj.containsKey("key_path") && werteObj.containsKey("value")) {
+                        String keyPath = werteObj.getString("key_path");
+                        String value = werteObj.get("value").toString().replaceAll("\"", "");
+
+                        valueMap.put(keyPath, value);
+                    }
+                }
+            }
+        }
+
+        return valueMap;
+    }
+}
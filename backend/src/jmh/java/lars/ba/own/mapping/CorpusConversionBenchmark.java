@@ -0,0 +1,121 @@
+package lars.ba.own.mapping;
+
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.smallrye.config.source.yaml.YamlConfigSource;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.Corpus;
+import lars.ba.common.ParserFactories;
+import lars.ba.own.extraction.CDAProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CdaToFhirConverter#convertCdaToFhir} auf dem CDA-JSON eines Korpus-Dokuments, so wie es
+ * /extract/xml liefert und /convert/cda-to-fhir bekommt. Enthält das Kodieren der Ressourcen mit HAPI.
+ * <p>
+ * Der Converter läuft mit einem Thread, damit Durchsatz und Allokationsrate pro Kern vergleichbar bleiben.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusConversionBenchmark {
+
+    @Param({Corpus.SMALL, Corpus.MEDIAN, Corpus.LARGEST})
+    public String document;
+
+    private CdaToFhirConverter converter;
+    private byte[] cdaJson;
+
+    @Setup
+    public void setup() throws Exception {
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .withSources(new YamlConfigSource(CorpusConversionBenchmark.class.getResource("/application.yaml")))
+                .withMapping(CdaFhirMappingConfig.class)
+                .build();
+        converter = new CdaToFhirConverter();
+        converter.parserFactories = new ParserFactories();
+        converter.mappingConfig = config.getConfigMapping(CdaFhirMappingConfig.class);
+        converter.conversionExecutor = new ConversionExecutor(1);
+        converter.metrics = ConversionMetrics.noop();
+        converter.compileMappingPlan();
+
+        cdaJson = cdaJson(converter.parserFactories);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.conversionExecutor.shutdown();
+    }
+
+    @Benchmark
+    public void convertCdaToFhir() throws Exception {
+        try (JsonParser entries = converter.openEntries(new ByteArrayInputStream(cdaJson))) {
+            converter.convertCdaToFhir(entries, Writer.nullWriter());
+        }
+    }
+
+    /**
+     * Extrahiert das Dokument und baut daraus das Eintrags-Array {inhalt_id, inhalt, werte}.
+     */
+    private byte[] cdaJson(ParserFactories parserFactories) throws Exception {
+        CDAProcessor processor = new CDAProcessor(CDAProcessor.ExtractionMode.STREAM, parserFactories);
+        processor.createAuftrag("Benchmark");
+        processor.processCDAFile(List.of(Corpus.upload(Corpus.document(document))));
+        Map<String, List<Map<String, Object>>> data = processor.getData();
+
+        Map<Object, List<Map<String, Object>>> werteByInhalt = new LinkedHashMap<>();
+        for (Map<String, Object> wert : data.get("werte")) {
+            werteByInhalt.computeIfAbsent(wert.get("inhalt_id"), id -> new ArrayList<>()).add(wert);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = Json.createGenerator(out)) {
+            json.writeStartArray();
+            for (Map<String, Object> inhalt : data.get("inhalte")) {
+                json.writeStartObject();
+                json.write("inhalt_id", String.valueOf(inhalt.get("inhalt_id")));
+                json.writeStartObject("inhalt");
+                json.write("section_code", String.valueOf(inhalt.get("section_code")));
+                json.writeEnd();
+                json.writeStartArray("werte");
+                for (Map<String, Object> wert : werteByInhalt.getOrDefault(inhalt.get("inhalt_id"), List.of())) {
+                    json.writeStartObject();
+                    json.write("wert_id", String.valueOf(wert.get("wert_id")));
+                    json.write("key_path", String.valueOf(wert.get("key_path")));
+                    json.write("value", String.valueOf(wert.get("value")));
+                    json.writeEnd();
+                }
+                json.writeEnd();
+                json.writeEnd();
+            }
+            json.writeEnd();
+        }
+        return out.toByteArray();
+    }
+}
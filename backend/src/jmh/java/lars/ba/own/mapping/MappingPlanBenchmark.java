@@ -0,0 +1,176 @@
+package lars.ba.own.mapping;
+
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.smallrye.config.source.yaml.YamlConfigSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Auflösen der Vitalparameter- und Sozialanamnese-Felder eines Eintrags: {@link MappingPlan} mit
+ * Slot-Array gegen die frühere HashMap mit {@code findValueFromPaths} über die Config-Proxys.
+ * <p>
+ * Beide Varianten bekommen die gleichen, bereits aus dem JSON gelesenen key_path/value-Paare, gemessen
+ * wird also nur das Ablegen der Werte und das Auflesen der Felder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingPlanBenchmark {
+
+    private CdaFhirMappingConfig mappingConfig;
+    private MappingPlan mappingPlan;
+    private String[][] vitalSign;
+    private String[][] socialHistory;
+
+    @Setup
+    public void setup() throws Exception {
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .withSources(new YamlConfigSource(MappingPlanBenchmark.class.getResource("/application.yaml")))
+                .withMapping(CdaFhirMappingConfig.class)
+                .build();
+        mappingConfig = config.getConfigMapping(CdaFhirMappingConfig.class);
+        mappingPlan = MappingPlan.compile(mappingConfig);
+
+        // Aufbau wie die werte-Zeilen einer Beobachtung aus cda.xml
+        vitalSign = rows(
+                "@typeCode", "COMP",
+                "observation@classCode", "OBS",
+                "observation@moodCode", "EVN",
+                "observation.templateId@extension", "2014-06-09",
+                "observation.templateId@root", "2.16.840.1.113883.10.20.22.4.27",
+                "observation.id@root", "c47ba524-486b-4671-bc21-01dfed7e01d2",
+                "observation.code@code", "8302-2",
+                "observation.code@codeSystem", "2.16.840.1.113883.6.1",
+                "observation.code@displayName", "Body Height",
+                "observation.code.originalText.reference@value", "#observations-desc-1",
+                "observation.code.translation@code", "8302-2",
+                "observation.code.translation@codeSystem", "2.16.840.1.113883.6.1",
+                "observation.code.translation@displayName", "Body Height",
+                "observation.statusCode@code", "completed",
+                "observation.effectiveTime@value", "20100329151719",
+                "observation.value@unit", "cm",
+                "observation.value@value", "154.78809861996862",
+                "observation.value@type", "PQ");
+        socialHistory = rows(
+                "@typeCode", "DRIV",
+                "observation@classCode", "OBS",
+                "observation@moodCode", "EVN",
+                "observation.templateId@extension", "2015-08-01",
+                "observation.templateId@root", "2.16.840.1.113883.10.20.22.4.78",
+                "observation.id@root", "8a1c5e3f-6b4d-4f0e-9d1a-2f3b4c5d6e7f",
+                "observation.code@code", "72166-2",
+                "observation.code@codeSystem", "2.16.840.1.113883.6.1",
+                "observation.code@displayName", "Tobacco smoking status",
+                "observation.statusCode@code", "completed",
+                "observation.effectiveTime.low@value", "20100329151719",
+                "observation.effectiveTime.high@value", "20190916151719",
+                "observation.value@code", "266919005",
+                "observation.value@codeSystem", "2.16.840.1.113883.6.96",
+                "observation.value@displayName", "Never smoker",
+                "observation.value@type", "CD");
+    }
+
+    @Benchmark
+    public void vitalSignsPlan(Blackhole blackhole) {
+        EntryValues values = mappingPlan.newEntryValues();
+        for (String[] row : vitalSign) {
+            values.put(row[0], row[1]);
+        }
+        blackhole.consume(values.get(mappingPlan.vitalSignCode));
+        blackhole.consume(values.get(mappingPlan.vitalSignDisplay));
+        blackhole.consume(values.get(mappingPlan.vitalSignSystem));
+        blackhole.consume(values.get(mappingPlan.vitalSignValueType));
+        blackhole.consume(values.get(mappingPlan.vitalSignUnit));
+        blackhole.consume(values.get(mappingPlan.vitalSignValue));
+        blackhole.consume(values.get(mappingPlan.vitalSignValueSystem));
+        blackhole.consume(values.get(mappingPlan.vitalSignValueCode));
+    }
+
+    @Benchmark
+    public void vitalSignsLegacy(Blackhole blackhole) {
+        Map<String, String> valueMap = valueMap(vitalSign);
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().code().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().display().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().system().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().type().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().unit().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().value().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().system().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().code().paths(), null));
+    }
+
+    @Benchmark
+    public void socialHistoryPlan(Blackhole blackhole) {
+        EntryValues values = mappingPlan.newEntryValues();
+        for (String[] row : socialHistory) {
+            values.put(row[0], row[1]);
+        }
+        blackhole.consume(values.get(mappingPlan.socialHistorySystem));
+        blackhole.consume(values.get(mappingPlan.socialHistoryDisplay));
+        blackhole.consume(values.get(mappingPlan.socialHistoryCode));
+        blackhole.consume(values.get(mappingPlan.socialHistoryLow));
+        blackhole.consume(values.get(mappingPlan.socialHistoryHigh));
+    }
+
+    @Benchmark
+    public void socialHistoryLegacy(Blackhole blackhole) {
+        Map<String, String> valueMap = valueMap(socialHistory);
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().system().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().display().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().code().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().effectiveDateTime().effectiveDateTimeLow().paths(), null));
+        blackhole.consume(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().effectiveDateTime().effectiveDateTimeHigh().paths(), null));
+    }
+
+    private static Map<String, String> valueMap(String[][] rows) {
+        Map<String, String> valueMap = new HashMap<>();
+        for (String[] row : rows) {
+            valueMap.put(row[0], row[1]);
+        }
+        return valueMap;
+    }
+
+    /**
+     * Unverändert aus dem früheren CdaToFhirConverter übernommen.
+     */
+    private static String findValueFromPaths(Map<String, String> valueMap, List<String> paths, String defaultValue) {
+        if (paths == null || paths.isEmpty()) {
+            return defaultValue;
+        }
+
+        for (String path : paths) {
+            if (valueMap.containsKey(path)) {
+                return valueMap.get(path);
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private static String[][] rows(String... keyValues) {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            rows.add(new String[]{keyValues[i], keyValues[i + 1]});
+        }
+        return rows.toArray(new String[0][]);
+    }
+}
@@ -0,0 +1,88 @@
+package lars.ba.cda2r4;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optionales Archiv der erzeugten Bundles als JSON-Dateien.
+ * <p>
+ * Archiviert werden die bereits für die Antwort kodierten Bytes, das Bundle wird also kein zweites
+ * Mal serialisiert und der Hintergrund-Thread greift nie auf das Bundle-Objekt zu. Die Bytes werden
+ * in eine begrenzte Warteschlange gestellt und von einem Hintergrund-Thread geschrieben, der
+ * Request wartet also nicht auf die Festplatte. Ist die Warteschlange voll, wird das Bundle
+ * verworfen und eine Warnung geloggt.
+ */
+@ApplicationScoped
+public class BundleArchive {
+
+    private static final Logger LOG = Logger.getLogger(BundleArchive.class);
+
+    private final boolean enabled;
+    private final Path directory;
+    private final BlockingQueue<byte[]> queue;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread writer;
+
+    public BundleArchive(@ConfigProperty(name = "cda2r4.archive.enabled", defaultValue = "false") boolean enabled,
+                         @ConfigProperty(name = "cda2r4.archive.directory", defaultValue = "src/test/resources/output") String directory,
+                         @ConfigProperty(name = "cda2r4.archive.queue-size", defaultValue = "64") int queueSize) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        if (enabled) {
+            this.writer = new Thread(this::writeLoop, "bundle-archive");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.writer = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stellt ein kodiertes Bundle zum Archivieren ein, ohne zu blockieren. Das Array darf danach
+     * nicht mehr verändert werden.
+     */
+    public void offer(byte[] encoded) {
+        if (enabled && !queue.offer(encoded)) {
+            LOG.warn("Archiv-Warteschlange voll, Bundle wird nicht archiviert");
+        }
+    }
+
+    private void writeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            byte[] encoded;
+            try {
+                encoded = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path file = directory.resolve("FHIRDemo-" + System.currentTimeMillis() + "-" + sequence.incrementAndGet() + ".json");
+            try {
+                Files.createDirectories(directory);
+                Files.write(file, encoded);
+            } catch (IOException e) {
+                LOG.errorf(e, "Bundle konnte nicht archiviert werden: %s", file);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+}
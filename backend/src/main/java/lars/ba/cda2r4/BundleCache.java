@@ -0,0 +1,65 @@
+package lars.ba.cda2r4;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.Startup;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.ContentCache;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Cache der umgewandelten Bundles pro Datei für /convert/cda2r4.
+ * <p>
+ * Abgelegt wird das fertig kodierte Bundle-JSON (UTF-8). Bei einem Treffer wird es unverändert in die
+ * Antwort geschrieben, MDHT und cda2fhir laufen für die Datei nicht noch einmal.
+ */
+@Startup
+@ApplicationScoped
+public class BundleCache {
+
+    private static final ContentCache.Codec<byte[]> CODEC = new ContentCache.Codec<>() {
+        @Override
+        public long weigh(byte[] value) {
+            return 16L + value.length;
+        }
+
+        @Override
+        public void write(byte[] value, DataOutputStream out) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        @Override
+        public byte[] read(DataInputStream in) throws IOException {
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return value;
+        }
+    };
+
+    private final ContentCache<byte[]> cache;
+
+    public BundleCache(@ConfigProperty(name = "cda-cache.enabled", defaultValue = "true") boolean enabled,
+                       @ConfigProperty(name = "cda-cache.version", defaultValue = "1") String version,
+                       @ConfigProperty(name = "quarkus.application.version", defaultValue = "dev") String applicationVersion,
+                       @ConfigProperty(name = "cda-cache.cda2r4.max-memory-mb", defaultValue = "64") long maxMemoryMb,
+                       @ConfigProperty(name = "cda-cache.disk.enabled", defaultValue = "false") boolean diskEnabled,
+                       @ConfigProperty(name = "cda-cache.disk.directory", defaultValue = "target/cda-cache") String directory,
+                       @ConfigProperty(name = "cda-cache.disk.max-size-mb", defaultValue = "1024") long maxDiskMb,
+                       SectionFilter sectionFilter,
+                       MeterRegistry meterRegistry) {
+        // ein anderer Section-Filter ergibt andere Bundles aus derselben Datei
+        this.cache = new ContentCache<>("cda2r4", enabled,
+                "cda2r4/" + applicationVersion + "/" + version + "/" + sectionFilter.fingerprint(),
+                maxMemoryMb * 1024 * 1024, diskEnabled ? Path.of(directory) : null, maxDiskMb * 1024 * 1024,
+                CODEC, meterRegistry);
+    }
+
+    public ContentCache<byte[]> cache() {
+        return cache;
+    }
+}
@@ -0,0 +1,118 @@
+package lars.ba.cda2r4;
+
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Setzt die Request-Angaben der Einträge eines cda2fhir-Bundles: POST auf den Ressourcentyp und
+ * If-None-Exist über den ersten Identifier.
+ * <p>
+ * Pro HAPI-Ressourcenklasse wird einmal ermittelt, ob und wie sie einen Identifier hat
+ * ({@code getIdentifier()} liefert je nach Typ eine Liste oder einen einzelnen Identifier); das
+ * Ergebnis liegt in einem {@link ClassValue}. Danach läuft pro Eintrag nur noch ein
+ * {@link MethodHandle}-Aufruf, ohne Reflection-Suche und ohne Exceptions für Typen ohne Identifier.
+ */
+final class BundleRequests {
+
+    private static final MethodType AS_OBJECT = MethodType.methodType(Object.class, Resource.class);
+
+    private static final ClassValue<Accessor> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Accessor computeValue(Class<?> type) {
+            return Accessor.of(type.asSubclass(Resource.class));
+        }
+    };
+
+    private BundleRequests() {
+    }
+
+    static void addHttpMethod(Bundle bundle) {
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            Resource resource = entry.getResource();
+            Accessor accessor = ACCESSORS.get(resource.getClass());
+
+            Bundle.BundleEntryRequestComponent request = entry.getRequest();
+            request.setMethod(Bundle.HTTPVerb.POST);
+            request.setUrl(accessor.url);
+
+            String value = accessor.identifierValue(resource);
+            if (value != null) {
+                request.setIfNoneExist(accessor.ifNoneExistPrefix.concat(value));
+            }
+        }
+    }
+
+    /**
+     * Zugriff auf den ersten Identifier einer Ressourcenklasse samt vorberechneter URL-Teile.
+     */
+    private static final class Accessor {
+        final String url;
+        final String ifNoneExistPrefix;
+        /** (Resource) -> Object, null wenn die Klasse keinen Identifier hat */
+        private final MethodHandle getIdentifier;
+
+        private Accessor(String url, MethodHandle getIdentifier) {
+            this.url = url;
+            this.ifNoneExistPrefix = url + "?identifier=";
+            this.getIdentifier = getIdentifier;
+        }
+
+        static Accessor of(Class<? extends Resource> type) {
+            String url = resourceTypeName(type);
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals("getIdentifier") && method.getParameterCount() == 0
+                        && (method.getReturnType() == List.class || method.getReturnType() == Identifier.class)) {
+                    try {
+                        return new Accessor(url, MethodHandles.publicLookup().unreflect(method).asType(AS_OBJECT));
+                    } catch (IllegalAccessException e) {
+                        // öffentliche Methode einer öffentlichen HAPI-Klasse, kommt nicht vor
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return new Accessor(url, null);
+        }
+
+        private static String resourceTypeName(Class<?> type) {
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                ResourceDef definition = current.getAnnotation(ResourceDef.class);
+                if (definition != null) {
+                    return definition.name();
+                }
+            }
+            throw new IllegalStateException("Keine @ResourceDef an " + type.getName());
+        }
+
+        /**
+         * Wert des ersten Identifiers oder null.
+         */
+        String identifierValue(Resource resource) {
+            if (getIdentifier == null) {
+                return null;
+            }
+            Object result;
+            try {
+                result = (Object) getIdentifier.invokeExact(resource);
+            } catch (Throwable e) {
+                // HAPI-Getter legen höchstens eine leere Liste an und werfen nicht
+                throw new IllegalStateException(e);
+            }
+
+            Identifier identifier = null;
+            if (result instanceof Identifier single) {
+                identifier = single;
+            } else if (result instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof Identifier first) {
+                identifier = first;
+            }
+            return identifier != null && identifier.hasValue() ? identifier.getValue() : null;
+        }
+    }
+}
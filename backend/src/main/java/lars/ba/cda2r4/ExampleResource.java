@@ -1,24 +1,64 @@
 package lars.ba.cda2r4;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import io.vertx.ext.web.RoutingContext;
+import lars.ba.common.ContentCache;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.NdjsonExport;
+import lars.ba.common.NdjsonExports;
+import lars.ba.common.ParserFactories;
+import lars.ba.common.RequestTiming;
+import org.hl7.fhir.r4.model.Bundle;
 import org.jboss.resteasy.reactive.RestForm;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
-import java.util.ArrayList;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 @Path("/convert")
 public class ExampleResource {
 
+    @Inject
+    ParserFactories parserFactories;
+
+    @Inject
+    MdhtInitializer mdhtInitializer;
+
+    @Inject
+    MdhtWorkerPool mdhtWorkerPool;
+
+    @Inject
+    BundleArchive bundleArchive;
+
+    @Inject
+    BundleCache bundleCache;
+
+    @Inject
+    ConversionMetrics metrics;
+
+    @Inject
+    NdjsonExports ndjsonExports;
+
+    @Inject
+    SectionFilter sectionFilter;
+
     @POST
     @Path("/cda2r4")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response hello(@RestForm("files") List<FileUpload> files) throws Exception {
-
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response hello(@RestForm("files") List<FileUpload> files,
+                          @QueryParam("_outputFormat") String outputFormat,
+                          @Context UriInfo uriInfo,
+                          RoutingContext routingContext) throws Exception {
+        metrics.record(Stage.RECEIVE, RequestTiming.elapsedNanos(routingContext));
 
         for (FileUpload file : files) {
             if (!file.fileName().toLowerCase().endsWith(".xml")) {
@@ -28,18 +68,68 @@ public class ExampleResource {
             }
         }
 
-        ArrayList<JsonNode> returnValue = new ArrayList<>();
+        mdhtInitializer.awaitReady();
+        CdaDemo trans = new CdaDemo(parserFactories, metrics, sectionFilter);
 
-        for (FileUpload file : files) {
-            returnValue.add(CdaIsolationUtil.executeInIsolation(() -> {
-                CdaDemo trans = new CdaDemo();
-                return trans.getClinicalDocument(file);
-            }));
+        if (NdjsonExports.isNdjson(outputFormat)) {
+            try (NdjsonExport export = ndjsonExports.create()) {
+                convert(files, trans, export);
+                return Response.ok(export.manifest(uriInfo.getBaseUri(), uriInfo.getRequestUri().toString())).build();
+            }
         }
 
+        List<byte[]> bundles = convert(files, trans, null);
 
+        StreamingOutput json = output -> {
+            OutputStream buffered = new BufferedOutputStream(output);
+            CdaDemo.writeBundles(bundles, buffered);
+            buffered.flush();
+        };
+
+        return Response.ok(json).build();
+    }
 
+    /**
+     * Wandelt die Dateien parallel auf den MDHT-Threads um, Ergebnis in Upload-Reihenfolge; bereits
+     * umgewandelte Dateien kommen kodiert aus dem Cache.
+     *
+     * @param export {@code null}: kodierte Bundles zurückgeben, sonst die Ressourcen direkt in den
+     *               NDJSON-Export schreiben (Rückgabe dann ohne Inhalt)
+     */
+    private List<byte[]> convert(List<FileUpload> files, CdaDemo trans, NdjsonExport export) throws Exception {
+        ContentCache<byte[]> cache = bundleCache.cache();
+        List<byte[]> bundles = mdhtWorkerPool.invokeAll(files, (file, transformer) -> {
+            String contentHash = cache.isEnabled() ? ContentCache.sha256(file.uploadedFile()) : null;
+            if (contentHash != null) {
+                byte[] cached = cache.get(contentHash);
+                if (cached != null) {
+                    // wie ohne Cache wird jedes ausgelieferte Bundle archiviert
+                    bundleArchive.offer(cached);
+                    if (export != null) {
+                        trans.writeNdjson(trans.parseBundle(cached), export);
+                        return null;
+                    }
+                    return cached;
+                }
+            }
 
-        return Response.ok(returnValue).build();
+            Bundle bundle = trans.getClinicalDocument(file, transformer);
+            // ohne Cache und Archiv wird für NDJSON kein ganzes Bundle kodiert
+            byte[] encoded = contentHash != null || export == null || bundleArchive.isEnabled()
+                    ? trans.encodeBundle(bundle) : null;
+            if (contentHash != null) {
+                cache.put(contentHash, encoded);
+            }
+            if (encoded != null) {
+                bundleArchive.offer(encoded);
+            }
+            if (export != null) {
+                trans.writeNdjson(bundle, export);
+                return null;
+            }
+            return encoded;
+        });
+        metrics.documents("cda2r4", files.size());
+        return bundles;
     }
 }
@@ -0,0 +1,115 @@
+package lars.ba.cda2r4;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import lars.ba.common.ParserFactories;
+import org.hl7.fhir.r4.model.Bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lädt die Bundles von /convert/cda2r4 serverseitig auf den konfigurierten FHIR-Server hoch, in
+ * Transaktionen zu je {@code cda2r4.upload.chunk-size} Einträgen (siehe {@link FhirUploader}).
+ * <p>
+ * Erwartet das JSON-Array aus /convert/cda2r4 oder ein einzelnes Bundle. Die Antwort listet jeden
+ * gesendeten Teil mit HTTP-Status, Anzahl Versuche und Dauer; 502, wenn ein Teil fehlgeschlagen ist.
+ */
+@Path("/fhir")
+@Produces(MediaType.APPLICATION_JSON)
+public class FhirUploadResource {
+
+    @Inject
+    ParserFactories parserFactories;
+
+    @Inject
+    FhirUploader uploader;
+
+    @POST
+    @Path("/upload")
+    @Consumes({MediaType.APPLICATION_JSON, "application/fhir+json"})
+    public Response upload(InputStream body) {
+        List<Bundle> bundles;
+        try {
+            bundles = readBundles(body);
+        } catch (IOException | DataFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error("Ungültiges Bundle-JSON: " + e.getMessage()))
+                    .build();
+        }
+
+        long start = System.nanoTime();
+        List<FhirUploader.ChunkResult> results = uploader.upload(bundles);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        int failed = 0;
+        JsonArrayBuilder chunks = Json.createArrayBuilder();
+        for (FhirUploader.ChunkResult result : results) {
+            JsonObjectBuilder chunk = Json.createObjectBuilder()
+                    .add("bundle", result.bundle)
+                    .add("chunk", result.chunk)
+                    .add("phase", result.phase)
+                    .add("eintraege", result.entries)
+                    .add("status", result.status)
+                    .add("versuche", result.attempts)
+                    .add("millis", result.nanos / 1_000_000);
+            if (!result.isSuccess()) {
+                chunk.add("fehler", result.error);
+                failed++;
+            }
+            chunks.add(chunk);
+        }
+
+        JsonObjectBuilder summary = Json.createObjectBuilder()
+                .add("server", uploader.serverUrl().toString())
+                .add("bundles", bundles.size())
+                .add("fehlgeschlagen", failed)
+                .add("millis", millis)
+                .add("chunks", chunks);
+        return Response.status(failed == 0 ? Response.Status.OK : Response.Status.BAD_GATEWAY)
+                .entity(summary.build())
+                .build();
+    }
+
+    /**
+     * Liest ein Array von Bundles oder ein einzelnes Bundle. Jedes Bundle wird einzeln als Baum
+     * gelesen und an HAPI übergeben, das ganze Array liegt nie als Baum im Speicher.
+     */
+    private List<Bundle> readBundles(InputStream body) throws IOException {
+        IParser fhirParser = parserFactories.fhirJsonParser();
+        List<Bundle> bundles = new ArrayList<>();
+        try (JsonParser json = parserFactories.objectMapper().createParser(body)) {
+            JsonToken token = json.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                bundles.add(fhirParser.parseResource(Bundle.class, json.<JsonNode>readValueAsTree().toString()));
+            } else if (token == JsonToken.START_ARRAY) {
+                while (json.nextToken() == JsonToken.START_OBJECT) {
+                    bundles.add(fhirParser.parseResource(Bundle.class, json.<JsonNode>readValueAsTree().toString()));
+                }
+            } else {
+                throw new IOException("Bundle oder Array von Bundles erwartet");
+            }
+        }
+        return bundles;
+    }
+
+    private static JsonObject error(String message) {
+        return Json.createObjectBuilder().add("error", message).build();
+    }
+}
@@ -0,0 +1,454 @@
+package lars.ba.cda2r4;
+
+import ca.uhn.fhir.util.FhirTerser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.DaemonThreads;
+import lars.ba.common.ParserFactories;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lädt Bundles als Transaktionen in Teilen auf den FHIR-Server ({@code cda2r4.upload.server-url}).
+ * <p>
+ * Ein Bundle wird in zwei Phasen gesendet: zuerst alle Einträge, auf die andere Einträge verweisen
+ * (Patient, Autoren, Encounter ...), als eine Transaktion. Die vom Server vergebenen Locations ersetzen
+ * danach die Referenzen der übrigen Einträge, die in Transaktionen zu je {@code chunk-size} Einträgen
+ * parallel gesendet werden. So bleiben Referenzen auch über Teilgrenzen hinweg gültig.
+ * <p>
+ * Höchstens {@code parallelism} Transaktionen laufen gleichzeitig, alle über denselben
+ * {@link HttpClient} und damit über wiederverwendete Verbindungen.
+ * <p>
+ * Wiederholt wird mit exponentiellem Backoff, Wartezeiten belegen dabei einen der Plätze. Eine
+ * Transaktion ist nicht idempotent: nach einem Timeout, einem Verbindungsabbruch während des Requests
+ * oder 500/502/504 kann der Server sie bereits übernommen haben, und unbedingte POSTs (Ressourcen ohne
+ * Identifier, siehe {@link BundleRequests}) würden doppelt angelegt. Deshalb wird immer nur wiederholt,
+ * wenn der Request sicher nicht verarbeitet wurde (Verbindungsaufbau gescheitert, 429, 503). Die
+ * übrigen Fehler werden nur wiederholt, wenn jeder Eintrag des Teils ein If-None-Exist trägt, der
+ * Server ein bereits angelegtes Ergebnis also wiederfindet.
+ * Die Dauer jedes Teils (inklusive Wiederholungen) steht im Ergebnis und im Timer
+ * {@code cda2r4.upload.chunk}.
+ */
+@ApplicationScoped
+public class FhirUploader {
+
+    private static final Logger LOG = Logger.getLogger(FhirUploader.class);
+    private static final String FHIR_JSON = "application/fhir+json";
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    static final String PHASE_REFERENCED = "referenziert";
+    static final String PHASE_REST = "rest";
+
+    private final URI serverUrl;
+    private final int chunkSize;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final Duration timeout;
+    private final ParserFactories parserFactories;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Timer succeeded;
+    private final Timer failed;
+    private final Counter retries;
+
+    public FhirUploader(@ConfigProperty(name = "cda2r4.upload.server-url", defaultValue = "http://localhost:8888/fhir") String serverUrl,
+                        @ConfigProperty(name = "cda2r4.upload.chunk-size", defaultValue = "100") int chunkSize,
+                        @ConfigProperty(name = "cda2r4.upload.parallelism", defaultValue = "4") int parallelism,
+                        @ConfigProperty(name = "cda2r4.upload.max-attempts", defaultValue = "4") int maxAttempts,
+                        @ConfigProperty(name = "cda2r4.upload.backoff-ms", defaultValue = "250") long backoffMs,
+                        @ConfigProperty(name = "cda2r4.upload.timeout-seconds", defaultValue = "60") long timeoutSeconds,
+                        ParserFactories parserFactories,
+                        MeterRegistry meterRegistry) {
+        this.serverUrl = URI.create(serverUrl);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = Math.max(0, backoffMs);
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.parserFactories = parserFactories;
+
+        int threads = Math.max(1, parallelism);
+        this.executor = Executors.newFixedThreadPool(threads, DaemonThreads.daemonThreads("fhir-upload"));
+        // HTTP/1.1: die Verbindungen bleiben offen und werden von den Upload-Threads wiederverwendet
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        this.succeeded = chunkTimer("success", meterRegistry);
+        this.failed = chunkTimer("failure", meterRegistry);
+        this.retries = Counter.builder("cda2r4.upload.retries")
+                .description("Wiederholte Transaktionen beim Upload")
+                .register(meterRegistry);
+    }
+
+    private static Timer chunkTimer(String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder("cda2r4.upload.chunk")
+                .description("Dauer einer Transaktion beim Upload, inklusive Wiederholungen")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    URI serverUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * Lädt alle Bundles hoch und wartet, bis jeder Teil gesendet oder endgültig fehlgeschlagen ist.
+     * Die Bundles werden dabei verändert (Einträge umverteilt, Referenzen ersetzt).
+     */
+    List<ChunkResult> upload(List<Bundle> bundles) {
+        List<CompletableFuture<List<ChunkResult>>> uploads = new ArrayList<>(bundles.size());
+        for (int i = 0; i < bundles.size(); i++) {
+            uploads.add(upload(i, bundles.get(i)));
+        }
+        List<ChunkResult> results = new ArrayList<>();
+        for (CompletableFuture<List<ChunkResult>> upload : uploads) {
+            results.addAll(upload.join());
+        }
+        return results;
+    }
+
+    private CompletableFuture<List<ChunkResult>> upload(int bundleIndex, Bundle bundle) {
+        FhirTerser terser = parserFactories.fhirContext().newTerser();
+        List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
+
+        // Schlüssel, unter denen ein Eintrag referenziert werden kann: fullUrl und Typ/id
+        Map<String, Integer> keys = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            for (String key : keys(entries.get(i))) {
+                keys.putIfAbsent(key, i);
+            }
+        }
+        boolean[] referenced = new boolean[entries.size()];
+        List<List<Reference>> references = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Resource resource = entries.get(i).getResource();
+            List<Reference> found = resource == null
+                    ? List.of()
+                    : terser.getAllPopulatedChildElementsOfType(resource, Reference.class);
+            references.add(found);
+            for (Reference reference : found) {
+                Integer target = keys.get(reference.getReference());
+                if (target != null && target != i) {
+                    referenced[target] = true;
+                }
+            }
+        }
+
+        List<Bundle.BundleEntryComponent> first = new ArrayList<>();
+        List<Bundle.BundleEntryComponent> rest = new ArrayList<>();
+        List<List<Reference>> restReferences = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (referenced[i]) {
+                first.add(entries.get(i));
+            } else {
+                rest.add(entries.get(i));
+                restReferences.add(references.get(i));
+            }
+        }
+
+        if (first.isEmpty()) {
+            return sendRest(bundleIndex, rest, restReferences, Map.of(), 0);
+        }
+        return CompletableFuture.supplyAsync(() -> send(bundleIndex, 0, PHASE_REFERENCED, first), executor)
+                .thenCompose(sent -> {
+                    if (!sent.result.isSuccess()) {
+                        return CompletableFuture.completedFuture(withSkippedRest(sent.result, rest.size()));
+                    }
+                    Map<String, String> locations;
+                    try {
+                        locations = locations(first, sent.response);
+                    } catch (RuntimeException e) {
+                        // ohne die vergebenen Adressen lassen sich die übrigen Einträge nicht verknüpfen
+                        String error = "Antwort nicht lesbar: " + e.getMessage();
+                        LOG.warnf("Bundle %d Teil 0: %s", bundleIndex, error);
+                        ChunkResult sentResult = sent.result;
+                        ChunkResult failedResult = new ChunkResult(bundleIndex, sentResult.chunk, sentResult.phase,
+                                sentResult.entries, sentResult.status, sentResult.attempts, sentResult.nanos, error);
+                        return CompletableFuture.completedFuture(withSkippedRest(failedResult, rest.size()));
+                    }
+                    return sendRest(bundleIndex, rest, restReferences, locations, 1).thenApply(results -> {
+                        List<ChunkResult> all = new ArrayList<>(results.size() + 1);
+                        all.add(sent.result);
+                        all.addAll(results);
+                        return all;
+                    });
+                });
+    }
+
+    private CompletableFuture<List<ChunkResult>> sendRest(int bundleIndex, List<Bundle.BundleEntryComponent> rest,
+                                                          List<List<Reference>> restReferences,
+                                                          Map<String, String> locations, int firstChunk) {
+        for (List<Reference> found : restReferences) {
+            for (Reference reference : found) {
+                String location = locations.get(reference.getReference());
+                if (location != null) {
+                    reference.setReference(location);
+                }
+            }
+        }
+
+        List<CompletableFuture<ChunkResult>> chunks = new ArrayList<>();
+        for (int from = 0, chunk = firstChunk; from < rest.size(); from += chunkSize, chunk++) {
+            List<Bundle.BundleEntryComponent> part = rest.subList(from, Math.min(from + chunkSize, rest.size()));
+            int chunkIndex = chunk;
+            chunks.add(CompletableFuture.supplyAsync(
+                    () -> send(bundleIndex, chunkIndex, PHASE_REST, part).result, executor));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> chunks.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Ergebnis des fehlgeschlagenen ersten Teils, gefolgt von den nicht gesendeten übrigen Teilen.
+     */
+    private List<ChunkResult> withSkippedRest(ChunkResult referenced, int restEntries) {
+        List<ChunkResult> results = new ArrayList<>();
+        results.add(referenced);
+        results.addAll(skipped(referenced.bundle, restEntries));
+        return results;
+    }
+
+    private List<ChunkResult> skipped(int bundleIndex, int entries) {
+        List<ChunkResult> results = new ArrayList<>();
+        for (int from = 0, chunk = 1; from < entries; from += chunkSize, chunk++) {
+            results.add(new ChunkResult(bundleIndex, chunk, PHASE_REST, Math.min(chunkSize, entries - from),
+                    0, 0, 0, "nicht gesendet, referenzierte Einträge fehlgeschlagen"));
+        }
+        return results;
+    }
+
+    /**
+     * Sendet die Einträge als eine Transaktion, mit Wiederholungen wie in der Klassenbeschreibung.
+     */
+    private Sent send(int bundleIndex, int chunkIndex, String phase, List<Bundle.BundleEntryComponent> entries) {
+        Bundle transaction = new Bundle();
+        transaction.setType(Bundle.BundleType.TRANSACTION);
+        transaction.getEntry().addAll(entries);
+        byte[] body = parserFactories.fhirJsonParser().encodeResourceToString(transaction).getBytes(StandardCharsets.UTF_8);
+
+        HttpRequest request = HttpRequest.newBuilder(serverUrl)
+                .timeout(timeout)
+                .header("Content-Type", FHIR_JSON)
+                .header("Accept", FHIR_JSON)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+
+        boolean conditional = isConditional(entries);
+        long start = System.nanoTime();
+        int attempts = 0;
+        int status = 0;
+        String error = null;
+        while (attempts < maxAttempts) {
+            attempts++;
+            long retryAfterMs = -1;
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                status = response.statusCode();
+                if (status / 100 == 2) {
+                    return new Sent(result(bundleIndex, chunkIndex, phase, entries.size(), status, attempts, start, null),
+                            response.body());
+                }
+                error = "HTTP " + status;
+                if (!isRetryable(status, conditional)) {
+                    break;
+                }
+                retryAfterMs = response.headers().firstValue("Retry-After")
+                        .map(FhirUploader::parseRetryAfter).orElse(-1L);
+            } catch (IOException e) {
+                status = 0;
+                error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                if (!isRetryable(e, conditional)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "abgebrochen";
+                break;
+            }
+
+            if (attempts < maxAttempts) {
+                retries.increment();
+                LOG.debugf("Bundle %d Teil %d: %s, Versuch %d von %d", bundleIndex, chunkIndex, error, attempts, maxAttempts);
+                if (!sleep(retryAfterMs >= 0 ? retryAfterMs : backoff(attempts))) {
+                    error = "abgebrochen";
+                    break;
+                }
+            }
+        }
+
+        LOG.warnf("Bundle %d Teil %d (%d Einträge) nicht hochgeladen: %s", bundleIndex, chunkIndex, entries.size(), error);
+        return new Sent(result(bundleIndex, chunkIndex, phase, entries.size(), status, attempts, start, error), null);
+    }
+
+    private ChunkResult result(int bundleIndex, int chunkIndex, String phase, int entries, int status, int attempts,
+                               long start, String error) {
+        long nanos = System.nanoTime() - start;
+        (error == null ? succeeded : failed).record(nanos, TimeUnit.NANOSECONDS);
+        return new ChunkResult(bundleIndex, chunkIndex, phase, entries, status, attempts, nanos, error);
+    }
+
+    /**
+     * Ordnet den Schlüsseln der gesendeten Einträge die vom Server vergebene Location (Typ/id) zu.
+     * Die Einträge der Antwort stehen in derselben Reihenfolge wie die der Transaktion.
+     */
+    private Map<String, String> locations(List<Bundle.BundleEntryComponent> sent, String responseBody) {
+        Bundle response = parserFactories.fhirJsonParser().parseResource(Bundle.class, responseBody);
+        Map<String, String> locations = new HashMap<>();
+        List<Bundle.BundleEntryComponent> answers = response.getEntry();
+        for (int i = 0; i < sent.size() && i < answers.size(); i++) {
+            Bundle.BundleEntryComponent answer = answers.get(i);
+            if (!answer.hasResponse() || !answer.getResponse().hasLocation()) {
+                continue;
+            }
+            IdType location = new IdType(answer.getResponse().getLocation());
+            String target = location.getResourceType() + "/" + location.getIdPart();
+            for (String key : keys(sent.get(i))) {
+                locations.put(key, target);
+            }
+        }
+        return locations;
+    }
+
+    private static List<String> keys(Bundle.BundleEntryComponent entry) {
+        List<String> keys = new ArrayList<>(3);
+        if (entry.hasFullUrl()) {
+            keys.add(entry.getFullUrl());
+            // absolute fullUrl (http://.../Patient/1): relative Referenzen verweisen mit Patient/1 darauf
+            IdType fullUrl = new IdType(entry.getFullUrl());
+            if (!fullUrl.isUrn() && fullUrl.hasResourceType() && fullUrl.hasIdPart()) {
+                keys.add(fullUrl.getResourceType() + "/" + fullUrl.getIdPart());
+            }
+        }
+        Resource resource = entry.getResource();
+        if (resource != null && resource.hasIdElement() && resource.getIdElement().hasIdPart()) {
+            keys.add(resource.fhirType() + "/" + resource.getIdElement().getIdPart());
+        }
+        return keys;
+    }
+
+    /**
+     * 429 und 503: der Server hat die Transaktion abgelehnt, ohne sie auszuführen. 500/502/504 lassen
+     * offen, ob sie übernommen wurde.
+     */
+    private static boolean isRetryable(int status, boolean conditional) {
+        if (status == 429 || status == 503) {
+            return true;
+        }
+        return conditional && (status == 500 || status == 502 || status == 504);
+    }
+
+    /**
+     * Ohne Verbindung kann der Server nichts erhalten haben; ein Abbruch danach (Timeout, Reset) schon.
+     */
+    private static boolean isRetryable(IOException e, boolean conditional) {
+        return e instanceof ConnectException || e instanceof HttpConnectTimeoutException || conditional;
+    }
+
+    private static boolean isConditional(List<Bundle.BundleEntryComponent> entries) {
+        for (Bundle.BundleEntryComponent entry : entries) {
+            if (!entry.getRequest().hasIfNoneExist()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Exponentieller Backoff mit Jitter: zwischen der Hälfte und dem vollen Wert von backoff-ms * 2^(Versuch-1).
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static long parseRetryAfter(String value) {
+        try {
+            return Math.min(MAX_BACKOFF_MS, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // HTTP-Datum wird nicht ausgewertet, dann gilt der normale Backoff
+            return -1;
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Sent {
+        final ChunkResult result;
+        final String response;
+
+        Sent(ChunkResult result, String response) {
+            this.result = result;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Ergebnis einer Transaktion. status 0 heißt: keine HTTP-Antwort (Netzwerkfehler oder nicht gesendet).
+     */
+    static final class ChunkResult {
+        final int bundle;
+        final int chunk;
+        final String phase;
+        final int entries;
+        final int status;
+        final int attempts;
+        final long nanos;
+        final String error;
+
+        ChunkResult(int bundle, int chunk, String phase, int entries, int status, int attempts, long nanos, String error) {
+            this.bundle = bundle;
+            this.chunk = chunk;
+            this.phase = phase;
+            this.entries = entries;
+            this.status = status;
+            this.attempts = attempts;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
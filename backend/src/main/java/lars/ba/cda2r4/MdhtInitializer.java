@@ -0,0 +1,79 @@
+package lars.ba.cda2r4;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.emf.ecore.EPackage;
+import org.jboss.logging.Logger;
+import org.openhealthtools.mdht.uml.cda.CDAPackage;
+import org.openhealthtools.mdht.uml.cda.consol.ConsolPackage;
+import org.openhealthtools.mdht.uml.cda.util.CDAUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lädt das MDHT/EMF-Metamodell einmalig beim Start der Anwendung.
+ * <p>
+ * Das Laden läuft in einem eigenen Thread, damit der Start nicht blockiert. Bis es fertig ist,
+ * meldet {@link MdhtReadinessCheck} "DOWN"; Requests, die vorher ankommen, warten in
+ * {@link #awaitReady()}. Die Dauer steht als Timer {@code cda2r4.mdht.init} zur Verfügung.
+ */
+@Startup
+@ApplicationScoped
+public class MdhtInitializer {
+
+    private static final Logger LOG = Logger.getLogger(MdhtInitializer.class);
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final CompletableFuture<ClassLoader> ready = new CompletableFuture<>();
+
+    @PostConstruct
+    void start() {
+        meterRegistry.gauge("cda2r4.mdht.ready", ready, future -> future.isDone() && !future.isCompletedExceptionally() ? 1 : 0);
+        Thread thread = new Thread(this::initialize, "mdht-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void initialize() {
+        ClassLoader cdaClassLoader = CDAUtil.class.getClassLoader();
+        Thread.currentThread().setContextClassLoader(cdaClassLoader);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            CDAUtil.loadPackages();
+            ConsolPackage.eINSTANCE.eClass();
+            EPackage.Registry.INSTANCE.put(CDAPackage.eNS_URI, CDAPackage.eINSTANCE);
+            EPackage.Registry.INSTANCE.put(ConsolPackage.eNS_URI, ConsolPackage.eINSTANCE);
+
+            long nanos = sample.stop(Timer.builder("cda2r4.mdht.init")
+                    .description("Dauer der MDHT-Initialisierung beim Start")
+                    .register(meterRegistry));
+            LOG.infof("MDHT-Pakete geladen in %d ms", nanos / 1_000_000);
+            ready.complete(cdaClassLoader);
+        } catch (Throwable e) {
+            LOG.error("MDHT-Initialisierung fehlgeschlagen", e);
+            ready.completeExceptionally(e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Wartet, bis das Metamodell geladen ist, und liefert den Classloader, unter dem MDHT laufen muss.
+     */
+    public ClassLoader awaitReady() throws InterruptedException {
+        try {
+            return ready.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("MDHT-Initialisierung fehlgeschlagen", e.getCause());
+        }
+    }
+}
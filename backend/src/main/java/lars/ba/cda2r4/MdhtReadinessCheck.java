@@ -0,0 +1,23 @@
+package lars.ba.cda2r4;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Die Anwendung ist erst bereit, wenn das MDHT-Metamodell geladen ist.
+ */
+@Readiness
+@ApplicationScoped
+public class MdhtReadinessCheck implements HealthCheck {
+
+    @Inject
+    MdhtInitializer mdhtInitializer;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("mdht").status(mdhtInitializer.isReady()).build();
+    }
+}
@@ -0,0 +1,79 @@
+package lars.ba.cda2r4;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.DaemonThreads;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.openhealthtools.mdht.uml.cda.util.CDAUtil;
+import tr.com.srdc.cda2fhir.transform.CCDTransformerImpl;
+import tr.com.srdc.cda2fhir.util.IdGeneratorEnum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Thread-Pool für die Umwandlung mit MDHT/cda2fhir.
+ * <p>
+ * Jeder Thread läuft dauerhaft mit dem MDHT-Classloader als Context-Classloader und besitzt einen
+ * eigenen {@link CCDTransformerImpl}. Das Umschalten des Classloaders pro Aufruf entfällt damit,
+ * und mehrere Dateien können gleichzeitig umgewandelt werden.
+ */
+@ApplicationScoped
+public class MdhtWorkerPool {
+
+    /**
+     * Arbeit, die auf einem MDHT-Thread mit dessen Transformer ausgeführt wird.
+     */
+    @FunctionalInterface
+    public interface Task<T, R> {
+        R run(T input, CCDTransformerImpl transformer) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final ThreadLocal<CCDTransformerImpl> transformers =
+            ThreadLocal.withInitial(() -> new CCDTransformerImpl(IdGeneratorEnum.COUNTER));
+
+    public MdhtWorkerPool(@ConfigProperty(name = "cda2r4.concurrency", defaultValue = "0") int concurrency) {
+        int threads = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        ClassLoader cdaClassLoader = CDAUtil.class.getClassLoader();
+        this.executor = Executors.newFixedThreadPool(threads, DaemonThreads.daemonThreads("mdht-worker", cdaClassLoader));
+    }
+
+    /**
+     * Führt die Aufgabe für alle Eingaben parallel aus. Die Ergebnisse stehen in der Reihenfolge der
+     * Eingaben. Schlägt eine Aufgabe fehl, werden die übrigen abgebrochen und ihr Fehler geworfen.
+     */
+    public <T, R> List<R> invokeAll(List<T> inputs, Task<T, R> task) throws Exception {
+        List<Future<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            futures.add(executor.submit(() -> task.run(input, transformers.get())));
+        }
+
+        List<R> results = new ArrayList<>(inputs.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        return results;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
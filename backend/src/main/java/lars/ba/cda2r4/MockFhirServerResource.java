@@ -0,0 +1,93 @@
+package lars.ba.cda2r4;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import lars.ba.common.ParserFactories;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hl7.fhir.r4.model.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimaler FHIR-Server im eigenen Prozess zum Ausprobieren von /fhir/upload ohne HAPI-Server:
+ * {@code cda2r4.upload.server-url} auf {@code http://localhost:7777/mock-fhir} setzen.
+ * <p>
+ * Beantwortet Transaktionen mit einem transaction-response, vergibt fortlaufende ids und beachtet
+ * If-None-Exist (gleiche Bedingung liefert 200 mit der bestehenden Location). Mit
+ * {@code failure-rate} antwortet er zufällig mit 503, um die Wiederholungen zu prüfen. Nur aktiv mit
+ * {@code cda2r4.upload.mock.enabled=true}, sonst 404.
+ */
+@Path("/mock-fhir")
+public class MockFhirServerResource {
+
+    private static final String FHIR_JSON = "application/fhir+json";
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final Map<String, String> CONDITIONAL = new ConcurrentHashMap<>();
+
+    @Inject
+    ParserFactories parserFactories;
+
+    @ConfigProperty(name = "cda2r4.upload.mock.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "cda2r4.upload.mock.failure-rate", defaultValue = "0")
+    double failureRate;
+
+    @ConfigProperty(name = "cda2r4.upload.mock.latency-ms", defaultValue = "0")
+    long latencyMs;
+
+    @POST
+    @Consumes({FHIR_JSON, MediaType.APPLICATION_JSON})
+    public Response transaction(String body) throws InterruptedException {
+        if (!enabled) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (latencyMs > 0) {
+            Thread.sleep(latencyMs);
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        Bundle transaction;
+        try {
+            transaction = parserFactories.fhirJsonParser().parseResource(Bundle.class, body);
+        } catch (DataFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        if (transaction.getType() != Bundle.BundleType.TRANSACTION) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Bundle.type transaction erwartet").build();
+        }
+
+        Bundle response = new Bundle();
+        response.setType(Bundle.BundleType.TRANSACTIONRESPONSE);
+        for (Bundle.BundleEntryComponent entry : transaction.getEntry()) {
+            String type = entry.getResource().fhirType();
+            String condition = entry.getRequest().getIfNoneExist();
+            String key = type + "?" + condition;
+
+            boolean created = condition == null || !CONDITIONAL.containsKey(key);
+            String location = condition == null
+                    ? newLocation(type)
+                    : CONDITIONAL.computeIfAbsent(key, k -> newLocation(type));
+            response.addEntry().getResponse()
+                    .setStatus(created ? "201 Created" : "200 OK")
+                    .setLocation(location);
+        }
+
+        return Response.ok(parserFactories.fhirJsonParser().encodeResourceToString(response), FHIR_JSON).build();
+    }
+
+    private static String newLocation(String type) {
+        return type + "/" + SEQUENCE.incrementAndGet() + "/_history/1";
+    }
+}
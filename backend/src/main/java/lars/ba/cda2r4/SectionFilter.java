@@ -0,0 +1,339 @@
+package lars.ba.cda2r4;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.DaemonThreads;
+import lars.ba.common.ParserFactories;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.namespace.QName;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Entfernt Sections, die nicht umgewandelt werden sollen, bevor MDHT das Dokument lädt: MDHT legt für
+ * jedes Element EMF-Objekte an, auch für Sections, mit denen cda2fhir nichts anfängt.
+ * <p>
+ * Konfiguriert über {@code cda2r4.section-filter}: Sections mit einem der LOINC-Codes
+ * ({@code drop-codes}) oder einer der templateId-Roots ({@code drop-template-ids}) fallen samt
+ * umschließendem {@code <component>} weg, {@code drop-narrative} entfernt zusätzlich den
+ * {@code <text>}-Block jeder Section. Ohne Konfiguration wird die Datei unverändert gelesen.
+ * <p>
+ * Das Dokument wird mit StAX gelesen und geschrieben, ohne DOM. Gefiltert wird auf einem eigenen Thread
+ * in eine Pipe, aus der MDHT gleichzeitig liest; das gefilterte Dokument liegt also nie komplett im
+ * Speicher.
+ */
+@ApplicationScoped
+public class SectionFilter {
+
+    private static final String CDA_NAMESPACE = "urn:hl7-org:v3";
+    /** Kinder einer Section, die vor title/text/entry stehen und sie identifizieren */
+    private static final Set<String> IDENTIFYING = Set.of("realmCode", "typeId", "templateId", "id", "code");
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newDefaultFactory();
+    // JDK-Writer fest wählen, newFactory() würde über den ServiceLoader Aalto finden
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newDefaultFactory();
+
+    private final Set<String> dropCodes;
+    private final Set<String> dropTemplateIds;
+    private final boolean dropNarrative;
+    private final ParserFactories parserFactories;
+    private final Counter droppedSections;
+    private final Counter droppedNarratives;
+    private final ExecutorService executor;
+
+    public SectionFilter(@ConfigProperty(name = "cda2r4.section-filter.drop-codes") Optional<List<String>> dropCodes,
+                         @ConfigProperty(name = "cda2r4.section-filter.drop-template-ids") Optional<List<String>> dropTemplateIds,
+                         @ConfigProperty(name = "cda2r4.section-filter.drop-narrative", defaultValue = "false") boolean dropNarrative,
+                         ParserFactories parserFactories,
+                         MeterRegistry meterRegistry) {
+        this.dropCodes = new TreeSet<>(dropCodes.orElse(List.of()));
+        this.dropTemplateIds = new TreeSet<>(dropTemplateIds.orElse(List.of()));
+        this.dropNarrative = dropNarrative;
+        this.parserFactories = parserFactories;
+        this.droppedSections = Counter.builder("cda2r4.section-filter.dropped")
+                .description("Vor dem Laden durch MDHT entfernte Elemente")
+                .tag("element", "section")
+                .register(meterRegistry);
+        this.droppedNarratives = Counter.builder("cda2r4.section-filter.dropped")
+                .description("Vor dem Laden durch MDHT entfernte Elemente")
+                .tag("element", "text")
+                .register(meterRegistry);
+
+        this.executor = Executors.newCachedThreadPool(DaemonThreads.daemonThreads("cda-section-filter"));
+    }
+
+    /**
+     * Für Aufrufer außerhalb von CDI (Benchmarks): filtert nichts.
+     */
+    public static SectionFilter none(ParserFactories parserFactories) {
+        return new SectionFilter(Optional.empty(), Optional.empty(), false, parserFactories, new SimpleMeterRegistry());
+    }
+
+    public boolean isActive() {
+        return dropsSections() || dropNarrative;
+    }
+
+    private boolean dropsSections() {
+        return !dropCodes.isEmpty() || !dropTemplateIds.isEmpty();
+    }
+
+    /**
+     * Beschreibung der Konfiguration für Cache-Schlüssel: andere Filter ergeben andere Bundles.
+     */
+    public String fingerprint() {
+        return isActive() ? "codes=" + dropCodes + ";templates=" + dropTemplateIds + ";narrative=" + dropNarrative : "none";
+    }
+
+    /**
+     * Öffnet die Datei für MDHT. Ist ein Filter konfiguriert, kommt das Dokument gefiltert aus einer
+     * Pipe; ein Fehler beim Filtern wird am Ende der Pipe als IOException geworfen.
+     */
+    public InputStream open(Path file) throws IOException {
+        if (!isActive()) {
+            return Files.newInputStream(file);
+        }
+        FilteredInput pipe = new FilteredInput();
+        OutputStream sink = new BufferedOutputStream(new PipedOutputStream(pipe), 8192);
+        InputStream source = Files.newInputStream(file);
+        pipe.producer = CompletableFuture.runAsync(() -> {
+            try (source; sink) {
+                filter(source, sink);
+            } catch (IOException | XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+        }, executor);
+        return pipe;
+    }
+
+    /**
+     * Kopiert das Dokument von {@code input} nach {@code output} (UTF-8) und lässt dabei die
+     * konfigurierten Sections und Narrative weg.
+     */
+    void filter(InputStream input, OutputStream output) throws XMLStreamException {
+        XMLEventReader reader = parserFactories.xmlInputFactory().createXMLEventReader(input);
+        XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(output, "UTF-8");
+        // lokale Namen der offenen CDA-Elemente, um section/text von entry/text zu unterscheiden
+        Deque<String> open = new ArrayDeque<>();
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartDocument()) {
+                    // die Bytes sind immer UTF-8, egal was die Quelle deklariert
+                    StartDocument start = (StartDocument) event;
+                    writer.add(EVENTS.createStartDocument("UTF-8", start.getVersion() != null ? start.getVersion() : "1.0"));
+                } else if (event.isStartElement()) {
+                    StartElement element = event.asStartElement();
+                    String name = cdaName(element);
+                    if ("component".equals(name) && dropsSections()) {
+                        List<XMLEvent> buffered = new ArrayList<>();
+                        buffered.add(event);
+                        int depth = inspectComponent(reader, buffered);
+                        if (depth > 0) {
+                            droppedSections.increment();
+                            skip(reader, depth);
+                            continue;
+                        }
+                        // behalten: Anfang von component und section zurückspielen
+                        for (XMLEvent kept : buffered) {
+                            writer.add(kept);
+                            track(open, kept);
+                        }
+                        continue;
+                    }
+                    if (dropNarrative && "text".equals(name) && "section".equals(open.peek())) {
+                        droppedNarratives.increment();
+                        skip(reader, 1);
+                        continue;
+                    }
+                    writer.add(event);
+                    open.push(name == null ? "" : name);
+                } else {
+                    writer.add(event);
+                    if (event.isEndElement()) {
+                        open.pop();
+                    }
+                }
+            }
+            writer.flush();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * Liest hinter einem {@code <component>} so weit, bis feststeht, ob es eine zu entfernende Section
+     * enthält: bis zum ersten Kind der Section, das nicht zu {@link #IDENTIFYING} gehört. Die
+     * gelesenen Ereignisse landen in {@code buffered}.
+     *
+     * @return Anzahl der noch offenen Elemente, wenn die Section wegfällt, sonst 0
+     */
+    private int inspectComponent(XMLEventReader reader, List<XMLEvent> buffered) throws XMLStreamException {
+        int depth = 1;
+        boolean section = false;
+        boolean drop = false;
+        while (reader.hasNext()) {
+            XMLEvent next = reader.peek();
+            if (next.isEndElement()) {
+                // Ende von component (ohne Section) oder section (nur identifizierende Kinder)
+                break;
+            }
+            if (next.isStartElement()) {
+                String name = cdaName(next.asStartElement());
+                if (!section) {
+                    if (!"section".equals(name)) {
+                        break;
+                    }
+                    section = true;
+                    buffered.add(reader.nextEvent());
+                    depth++;
+                    continue;
+                }
+                if (!IDENTIFYING.contains(name)) {
+                    break;
+                }
+                StartElement child = next.asStartElement();
+                if ("templateId".equals(name)) {
+                    drop |= dropTemplateIds.contains(attribute(child, "root"));
+                } else if ("code".equals(name)) {
+                    drop |= dropCodes.contains(attribute(child, "code"));
+                }
+                bufferSubtree(reader, buffered);
+                continue;
+            }
+            buffered.add(reader.nextEvent());
+        }
+        return drop ? depth : 0;
+    }
+
+    /**
+     * Übernimmt das nächste Element samt Inhalt in {@code buffered}.
+     */
+    private static void bufferSubtree(XMLEventReader reader, List<XMLEvent> buffered) throws XMLStreamException {
+        int depth = 0;
+        do {
+            XMLEvent event = reader.nextEvent();
+            buffered.add(event);
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Überspringt alles bis zum Ende der {@code depth} offenen Elemente.
+     */
+    private static void skip(XMLEventReader reader, int depth) throws XMLStreamException {
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    private static void track(Deque<String> open, XMLEvent event) {
+        if (event.isStartElement()) {
+            String name = cdaName(event.asStartElement());
+            open.push(name == null ? "" : name);
+        } else if (event.isEndElement()) {
+            open.pop();
+        }
+    }
+
+    /**
+     * Lokaler Name eines Elements im CDA-Namespace, sonst {@code null}.
+     */
+    private static String cdaName(StartElement element) {
+        QName name = element.getName();
+        return CDA_NAMESPACE.equals(name.getNamespaceURI()) ? name.getLocalPart() : null;
+    }
+
+    private static String attribute(StartElement element, String name) {
+        Attribute attribute = element.getAttributeByName(new QName(name));
+        return attribute != null ? attribute.getValue() : null;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Lese-Ende der Pipe. Am Ende der Daten wird auf den Filter-Thread gewartet, damit ein Fehler
+     * beim Filtern nicht als vollständiges Dokument durchgeht.
+     */
+    private static final class FilteredInput extends PipedInputStream {
+        private volatile CompletableFuture<Void> producer;
+
+        FilteredInput() {
+            super(PIPE_SIZE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value < 0) {
+                awaitProducer();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if (n < 0) {
+                awaitProducer();
+            }
+            return n;
+        }
+
+        private void awaitProducer() throws IOException {
+            try {
+                producer.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Filtern abgebrochen", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof IllegalStateException wrapper && wrapper.getCause() != null
+                        ? wrapper.getCause() : e.getCause();
+                throw new IOException("Section-Filter fehlgeschlagen: " + cause.getMessage(), cause);
+            }
+        }
+    }
+}
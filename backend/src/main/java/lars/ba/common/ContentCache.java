@@ -0,0 +1,390 @@
+package lars.ba.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Inhaltsadressierter Cache für Umwandlungsergebnisse hochgeladener Dateien.
+ * <p>
+ * Der Schlüssel ist der SHA-256 der Datei zusammen mit einer Version, die sich ändert, sobald sich
+ * das Ergebnis für dieselbe Datei ändern würde (Anwendungsversion, Mapping, ...). Im Speicher liegen
+ * die Einträge in LRU-Reihenfolge, begrenzt durch ihre geschätzte Größe. Optional wird jeder Eintrag
+ * zusätzlich auf die Festplatte geschrieben und bei einem Fehltreffer im Speicher von dort geladen.
+ * <p>
+ * Auf der Festplatte ist die Ablage ebenfalls begrenzt: beim Start werden Dateien anderer Versionen
+ * und liegengebliebene temporäre Dateien gelöscht, und wird die Obergrenze überschritten, fallen die
+ * am längsten nicht benutzten Dateien heraus (Änderungszeit, ein Treffer setzt sie neu).
+ * <p>
+ * Zugriffe werden als Counter {@code cda.cache.requests} (Tags cache, result, tier) gezählt, Größe und
+ * Anzahl der Einträge im Speicher stehen als Gauges {@code cda.cache.memory.bytes} und
+ * {@code cda.cache.memory.entries} zur Verfügung, die Größe auf der Festplatte als
+ * {@code cda.cache.disk.bytes}.
+ *
+ * @param <V> zwischengespeicherter Wert; muss nach dem Einstellen unverändert bleiben
+ */
+public final class ContentCache<V> {
+
+    private static final Logger LOG = Logger.getLogger(ContentCache.class);
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * Größenschätzung und Binärformat der Werte für die Festplatte.
+     */
+    public interface Codec<V> {
+        long weigh(V value);
+
+        void write(V value, DataOutputStream out) throws IOException;
+
+        V read(DataInputStream in) throws IOException;
+    }
+
+    private static final class Slot<V> {
+        final V value;
+        final long weight;
+
+        Slot(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final boolean enabled;
+    private final String version;
+    private final long maxBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final Codec<V> codec;
+
+    private final LinkedHashMap<String, Slot<V>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final Object diskLock = new Object();
+    private long diskBytes;
+
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter misses;
+
+    /**
+     * @param name      Name für Metriken und Unterverzeichnis auf der Festplatte
+     * @param directory    Basisverzeichnis der Festplatten-Ablage, {@code null} für nur im Speicher
+     * @param maxDiskBytes Obergrenze der Dateien dieses Caches im Unterverzeichnis
+     */
+    public ContentCache(String name, boolean enabled, String version, long maxBytes, Path directory,
+                        long maxDiskBytes, Codec<V> codec, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.version = sha256(version.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        this.maxBytes = maxBytes;
+        this.directory = enabled && directory != null ? directory.resolve(name) : null;
+        this.maxDiskBytes = maxDiskBytes;
+        this.codec = codec;
+
+        this.memoryHits = requests(meterRegistry, name, "hit", "memory");
+        this.diskHits = requests(meterRegistry, name, "hit", "disk");
+        this.misses = requests(meterRegistry, name, "miss", "none");
+        meterRegistry.gauge("cda.cache.memory.bytes", Tags.of("cache", name),
+                this, cache -> cache.memoryBytes());
+        meterRegistry.gauge("cda.cache.memory.entries", Tags.of("cache", name),
+                this, cache -> cache.memoryEntries());
+        meterRegistry.gauge("cda.cache.disk.bytes", Tags.of("cache", name),
+                this, cache -> cache.diskBytes());
+
+        if (this.directory != null) {
+            try {
+                Files.createDirectories(this.directory);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cache-Verzeichnis kann nicht angelegt werden: " + this.directory, e);
+            }
+            removeStaleFiles();
+        }
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String name, String result, String tier) {
+        return Counter.builder("cda.cache.requests")
+                .description("Zugriffe auf den Inhalts-Cache")
+                .tag("cache", name)
+                .tag("result", result)
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * SHA-256 einer Datei als Hex-String, gelesen in Blöcken.
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * SHA-256 wie bei {@link #sha256(Path)}, für Inhalte, die stückweise ankommen.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Liefert den Wert zum Inhalts-Hash oder {@code null}. Ein Treffer auf der Festplatte wird wieder
+     * in den Speicher übernommen.
+     */
+    public V get(String contentHash) {
+        if (!enabled) {
+            return null;
+        }
+        String key = key(contentHash);
+        synchronized (this) {
+            Slot<V> slot = memory.get(key);
+            if (slot != null) {
+                memoryHits.increment();
+                return slot.value;
+            }
+        }
+
+        V value = readFromDisk(key);
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        diskHits.increment();
+        putInMemory(key, value);
+        return value;
+    }
+
+    /**
+     * Legt einen Wert ab. Werte, die allein größer als die Obergrenze sind, landen nur auf der Festplatte.
+     */
+    public void put(String contentHash, V value) {
+        if (!enabled) {
+            return;
+        }
+        String key = key(contentHash);
+        putInMemory(key, value);
+        writeToDisk(key, value);
+    }
+
+    private String key(String contentHash) {
+        return contentHash + "-" + version;
+    }
+
+    private void putInMemory(String key, V value) {
+        long weight = codec.weigh(value);
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Slot<V> previous = memory.put(key, new Slot<>(value, weight));
+            if (previous != null) {
+                memoryBytes -= previous.weight;
+            }
+            memoryBytes += weight;
+
+            Iterator<Map.Entry<String, Slot<V>>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().getValue().weight;
+                eldest.remove();
+            }
+        }
+    }
+
+    private synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    private synchronized int memoryEntries() {
+        return memory.size();
+    }
+
+    private V readFromDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = directory.resolve(key + SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            V value = codec.read(in);
+            touch(file);
+            return value;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf(e, "Cache-Datei %s nicht lesbar, wird ignoriert", file);
+            return null;
+        }
+    }
+
+    /**
+     * Schreibt über eine temporäre Datei, damit parallele Leser nie eine halbe Datei sehen.
+     */
+    private void writeToDisk(String key, V value) {
+        if (directory == null) {
+            return;
+        }
+        Path file = directory.resolve(key + SUFFIX);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                codec.write(value, out);
+            }
+            long size = Files.size(temp);
+            long replaced = Files.exists(file) ? Files.size(file) : 0;
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            addDiskBytes(size - replaced);
+        } catch (IOException e) {
+            LOG.warnf(e, "Cache-Datei %s konnte nicht geschrieben werden", file);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // bleibt liegen, wird beim nächsten Schreiben desselben Schlüssels nicht gelesen
+                }
+            }
+        }
+    }
+
+    /**
+     * Der Zugriff zählt für die Verdrängung wie ein Schreiben.
+     */
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            // dann fällt die Datei eben früher heraus
+        }
+    }
+
+    private long diskBytes() {
+        synchronized (diskLock) {
+            return diskBytes;
+        }
+    }
+
+    private void addDiskBytes(long bytes) {
+        synchronized (diskLock) {
+            diskBytes += bytes;
+            if (diskBytes > maxDiskBytes) {
+                evictFromDisk();
+            }
+        }
+    }
+
+    /**
+     * Löscht beim Start, was nie mehr gelesen wird: Dateien mit anderer Version im Schlüssel (nach
+     * einem Update oder geänderter Konfiguration) und temporäre Dateien abgebrochener Schreibvorgänge.
+     * Danach wird die Obergrenze durchgesetzt.
+     */
+    private void removeStaleFiles() {
+        String current = "-" + version + SUFFIX;
+        int removed = 0;
+        synchronized (diskLock) {
+            diskBytes = 0;
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    if (file.getFileName().toString().endsWith(current)) {
+                        diskBytes += Files.size(file);
+                    } else if (Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warnf(e, "Veraltete Cache-Dateien in %s konnten nicht gelöscht werden", directory);
+            }
+            if (diskBytes > maxDiskBytes) {
+                evictFromDisk();
+            }
+        }
+        if (removed > 0) {
+            LOG.infof("%d veraltete Cache-Dateien in %s gelöscht", removed, directory);
+        }
+    }
+
+    /**
+     * Löscht die ältesten Dateien, bis 90 % der Obergrenze erreicht sind, damit nicht jedes weitere
+     * Schreiben das Verzeichnis erneut durchgehen muss. Aufruf nur mit {@code diskLock}.
+     */
+    private void evictFromDisk() {
+        long target = maxDiskBytes / 10 * 9;
+        try (Stream<Path> listing = Files.list(directory)) {
+            List<Path> files = listing.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).toList();
+            Map<Path, FileTime> modified = new HashMap<>();
+            long total = 0;
+            for (Path file : files) {
+                try {
+                    modified.put(file, Files.getLastModifiedTime(file));
+                    total += Files.size(file);
+                } catch (NoSuchFileException e) {
+                    // inzwischen ersetzt oder gelöscht
+                }
+            }
+            List<Path> oldestFirst = new ArrayList<>(modified.keySet());
+            oldestFirst.sort(Comparator.comparing(modified::get));
+            for (Path file : oldestFirst) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    long size = Files.size(file);
+                    Files.delete(file);
+                    total -= size;
+                } catch (NoSuchFileException e) {
+                    // inzwischen ersetzt oder gelöscht
+                }
+            }
+            diskBytes = total;
+        } catch (IOException e) {
+            LOG.warnf(e, "Cache-Verzeichnis %s konnte nicht verkleinert werden", directory);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package lars.ba.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zeiten und Zähler der einzelnen Verarbeitungsschritte aller Umwandlungs-Endpunkte.
+ * <p>
+ * Jeder Schritt ist ein Timer {@code cda.stage} mit Tag stage und Histogramm-Buckets, damit sich
+ * p99 pro Schritt im Prometheus-Format (/q/metrics) auswerten lässt. Dazu kommen die Zähler
+ * {@code cda.documents} (Tag pipeline), {@code cda.entries}, {@code cda.entries.failed} (Umwandlung
+ * mit Fehler abgebrochen) und {@code cda.entries.unmapped} (Sektion ohne Mapping), jeweils mit Tag
+ * section_code, sowie {@code cda.werte.rows}.
+ * <p>
+ * Die Section-Codes stammen aus den hochgeladenen Dokumenten. Damit die Zahl der Zeitreihen begrenzt
+ * bleibt, erscheinen als section_code nur die Codes, die der Konverter abbildet
+ * ({@link #sectionCodes(Set)}), alle anderen als {@code other}, entries ohne Code als {@code none}.
+ * <p>
+ * Schritte, die pro Eintrag sehr kurz sind (z.B. das Zerlegen eines entry), werden pro Dokument
+ * aufsummiert und einmal aufgezeichnet.
+ */
+@ApplicationScoped
+public class ConversionMetrics {
+
+    public enum Stage {
+        /** Empfang des Multipart-Uploads bis zum Aufruf des Endpunkts */
+        RECEIVE,
+        /** XML parsen (DOM bzw. MDHT) */
+        PARSE,
+        /** validateCDAStructure */
+        VALIDATE,
+        /** Sections und entries finden, Zeilen anlegen (STREAM: inklusive Parsen) */
+        EXTRACT,
+        /** entries in key_path/value zerlegen, Summe pro Dokument */
+        FLATTEN,
+        /** Tabellen als JSON schreiben */
+        SERIALIZE,
+        /** FHIR-Ressourcen bzw. -Bundles aufbauen */
+        BUILD,
+        /** FHIR-Ressourcen mit HAPI kodieren */
+        ENCODE,
+        /** Tabellen eines Auftrags in die Auftragsdatei schreiben */
+        STORE;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final String NO_SECTION = "none";
+    private static final String OTHER_SECTION = "other";
+    private static final ConversionMetrics NOOP = new ConversionMetrics(new CompositeMeterRegistry());
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+    private final Map<String, Counter> documents = new ConcurrentHashMap<>();
+    private final Map<String, Counter> entries = new ConcurrentHashMap<>();
+    private final Map<String, Counter> failedEntries = new ConcurrentHashMap<>();
+    private final Map<String, Counter> unmappedEntries = new ConcurrentHashMap<>();
+    private final Counter werteRows;
+    private volatile Set<String> sectionCodes = Set.of();
+
+    public ConversionMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("cda.stage")
+                    .description("Dauer eines Verarbeitungsschritts")
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.werteRows = Counter.builder("cda.werte.rows")
+                .description("Erzeugte werte-Zeilen (key_path/value-Paare)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Für Aufrufer außerhalb von CDI (Benchmarks, Tests): zeichnet nichts auf.
+     */
+    public static ConversionMetrics noop() {
+        return NOOP;
+    }
+
+    public Timer stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void documents(String pipeline, int count) {
+        documents.computeIfAbsent(pipeline, name -> Counter.builder("cda.documents")
+                .description("Verarbeitete Dokumente")
+                .tag("pipeline", name)
+                .register(meterRegistry)).increment(count);
+    }
+
+    /**
+     * Section-Codes, die als eigener Wert des Tags section_code erscheinen.
+     */
+    public void sectionCodes(Set<String> codes) {
+        this.sectionCodes = Set.copyOf(codes);
+    }
+
+    public void entry(String sectionCode) {
+        counter(entries, "cda.entries", "Verarbeitete entries", sectionCode).increment();
+    }
+
+    public void failedEntry(String sectionCode) {
+        counter(failedEntries, "cda.entries.failed", "entries, deren Umwandlung mit einem Fehler abbrach", sectionCode)
+                .increment();
+    }
+
+    public void unmappedEntry(String sectionCode) {
+        counter(unmappedEntries, "cda.entries.unmapped", "entries aus Sektionen ohne Mapping", sectionCode)
+                .increment();
+    }
+
+    public void werteRows(long rows) {
+        werteRows.increment(rows);
+    }
+
+    private Counter counter(Map<String, Counter> counters, String name, String description, String sectionCode) {
+        String tag = sectionCode == null ? NO_SECTION : sectionCodes.contains(sectionCode) ? sectionCode : OTHER_SECTION;
+        return counters.computeIfAbsent(tag, code -> Counter.builder(name)
+                .description(description)
+                .tag("section_code", code)
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,35 @@
+package lars.ba.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-Factories für die Pools der Anwendung. Die Threads sind Daemon-Threads, damit ein nicht
+ * heruntergefahrener Pool das Beenden der JVM nicht aufhält, und heißen {@code <prefix>-1},
+ * {@code <prefix>-2}, ...
+ */
+public final class DaemonThreads {
+
+    private DaemonThreads() {
+    }
+
+    public static ThreadFactory daemonThreads(String prefix) {
+        return daemonThreads(prefix, null);
+    }
+
+    /**
+     * Wie {@link #daemonThreads(String)}, die Threads laufen aber dauerhaft mit
+     * {@code contextClassLoader} ({@code null}: der des erzeugenden Threads).
+     */
+    public static ThreadFactory daemonThreads(String prefix, ClassLoader contextClassLoader) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            if (contextClassLoader != null) {
+                thread.setContextClassLoader(contextClassLoader);
+            }
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
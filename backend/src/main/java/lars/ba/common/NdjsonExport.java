@@ -0,0 +1,130 @@
+package lars.ba.common;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ein Export im NDJSON-Format der FHIR Bulk Data API: pro Ressourcentyp eine Datei
+ * {@code <Typ>.ndjson} mit einer kompakt kodierten Ressource pro Zeile.
+ * <p>
+ * Jede Ressource wird sofort in die Datei ihres Typs geschrieben, der Speicherbedarf hängt also nicht
+ * von der Anzahl der Ressourcen ab. {@link #resource} ist threadsicher, damit parallel umgewandelte
+ * Dokumente direkt schreiben können; innerhalb einer Datei ist die Reihenfolge dann beliebig.
+ * <p>
+ * Wird der Export ohne vorheriges {@link #manifest} geschlossen (z.B. weil die Umwandlung
+ * fehlgeschlagen ist), löscht {@link #close()} das Verzeichnis samt der unvollständigen Dateien.
+ */
+public final class NdjsonExport implements AutoCloseable {
+
+    public static final String MEDIA_TYPE = "application/fhir+ndjson";
+
+    private final String id;
+    private final Path directory;
+    private final Instant transactionTime = Instant.now();
+    private final Map<String, Writer> writers = new LinkedHashMap<>();
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+    private boolean completed;
+
+    NdjsonExport(String id, Path directory) {
+        this.id = id;
+        this.directory = directory;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Hängt eine kodierte Ressource als Zeile an die Datei ihres Typs an.
+     *
+     * @param json kompaktes JSON ohne Zeilenumbrüche (HAPI kodiert ohne Pretty-Print einzeilig)
+     */
+    public synchronized void resource(String resourceType, String json) throws IOException {
+        Writer writer = writers.get(resourceType);
+        if (writer == null) {
+            if (!NdjsonExports.isResourceType(resourceType)) {
+                throw new IOException("Ungültiger Ressourcentyp: " + resourceType);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(directory.resolve(resourceType + ".ndjson")), StandardCharsets.UTF_8), 64 * 1024);
+            writers.put(resourceType, writer);
+        }
+        writer.write(json);
+        writer.write('\n');
+        counts.merge(resourceType, 1L, Long::sum);
+    }
+
+    /**
+     * Anzahl der geschriebenen Ressourcen pro Typ, in der Reihenfolge des ersten Auftretens.
+     */
+    public synchronized Map<String, Long> counts() {
+        return new LinkedHashMap<>(counts);
+    }
+
+    /**
+     * Manifest wie bei einem abgeschlossenen Bulk-Data-Export, mit einer URL pro Datei.
+     *
+     * @param base     Basis-URL der Anwendung, die Dateien liegen unter {@code convert/exports/<id>/}
+     * @param request  die URL des auslösenden Requests
+     */
+    public synchronized JsonObject manifest(URI base, String request) {
+        JsonArrayBuilder output = Json.createArrayBuilder();
+        for (Map.Entry<String, Long> type : counts.entrySet()) {
+            output.add(Json.createObjectBuilder()
+                    .add("type", type.getKey())
+                    .add("url", base.resolve("convert/exports/" + id + "/" + type.getKey() + ".ndjson").toString())
+                    .add("count", type.getValue()));
+        }
+        JsonObject manifest = Json.createObjectBuilder()
+                .add("transactionTime", transactionTime.toString())
+                .add("request", request)
+                .add("requiresAccessToken", false)
+                .add("output", output)
+                .add("error", Json.createArrayBuilder())
+                .build();
+        completed = true;
+        return manifest;
+    }
+
+    /**
+     * Schließt alle Dateien. Nach einem {@link #manifest} sind sie danach vollständig und können abgeholt
+     * werden, sonst wird der Export gelöscht.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Writer writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (!completed || failure != null) {
+            try {
+                NdjsonExports.delete(directory);
+            } catch (IOException e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
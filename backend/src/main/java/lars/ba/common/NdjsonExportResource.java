@@ -0,0 +1,29 @@
+package lars.ba.common;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Liefert die Dateien eines NDJSON-Exports, deren URLs im Manifest stehen:
+ * {@code GET /convert/exports/{exportId}/{Typ}.ndjson}. Jede Datei kann unabhängig und parallel
+ * abgeholt werden.
+ */
+@Path("/convert/exports")
+public class NdjsonExportResource {
+
+    @Inject
+    NdjsonExports ndjsonExports;
+
+    @GET
+    @Path("/{exportId}/{resourceType}.ndjson")
+    public Response file(@PathParam("exportId") String exportId, @PathParam("resourceType") String resourceType) {
+        java.nio.file.Path file = ndjsonExports.file(exportId, resourceType);
+        if (file == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(file.toFile(), NdjsonExport.MEDIA_TYPE).build();
+    }
+}
@@ -0,0 +1,97 @@
+package lars.ba.common;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Verzeichnis der NDJSON-Exporte ({@code cda-conversion.ndjson.directory}), ein Unterverzeichnis pro
+ * Export. Exporte, die älter als {@code retention-minutes} sind, werden beim Anlegen eines neuen
+ * Exports gelöscht.
+ */
+@ApplicationScoped
+public class NdjsonExports {
+
+    private static final Logger LOG = Logger.getLogger(NdjsonExports.class);
+    private static final Pattern RESOURCE_TYPE = Pattern.compile("[A-Z][A-Za-z]{1,63}");
+
+    private final Path directory;
+    private final Duration retention;
+
+    public NdjsonExports(@ConfigProperty(name = "cda-conversion.ndjson.directory", defaultValue = "target/ndjson-exports") String directory,
+                         @ConfigProperty(name = "cda-conversion.ndjson.retention-minutes", defaultValue = "60") long retentionMinutes) {
+        this.directory = Path.of(directory);
+        this.retention = Duration.ofMinutes(retentionMinutes);
+    }
+
+    /**
+     * Prüft, ob {@code _outputFormat} NDJSON verlangt (die Kurzformen der Bulk Data API eingeschlossen).
+     */
+    public static boolean isNdjson(String outputFormat) {
+        return outputFormat != null && (outputFormat.equals(NdjsonExport.MEDIA_TYPE)
+                || outputFormat.equals("application/ndjson") || outputFormat.equals("ndjson"));
+    }
+
+    static boolean isResourceType(String resourceType) {
+        return resourceType != null && RESOURCE_TYPE.matcher(resourceType).matches();
+    }
+
+    public NdjsonExport create() throws IOException {
+        removeExpired();
+        String id = UUID.randomUUID().toString();
+        Path exportDirectory = Files.createDirectories(directory.resolve(id));
+        return new NdjsonExport(id, exportDirectory);
+    }
+
+    /**
+     * Die Datei eines Ressourcentyps oder {@code null}, wenn es Export oder Typ nicht gibt.
+     */
+    public Path file(String exportId, String resourceType) {
+        try {
+            UUID.fromString(exportId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!isResourceType(resourceType)) {
+            return null;
+        }
+        Path file = directory.resolve(exportId).resolve(resourceType + ".ndjson");
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    private void removeExpired() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Instant limit = Instant.now().minus(retention);
+        try (Stream<Path> exports = Files.list(directory)) {
+            for (Path export : exports.toList()) {
+                if (Files.getLastModifiedTime(export).toInstant().isBefore(limit)) {
+                    delete(export);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "Alte NDJSON-Exporte in %s konnten nicht gelöscht werden", directory);
+        }
+    }
+
+    static void delete(Path export) throws IOException {
+        try (Stream<Path> paths = Files.walk(export)) {
+            List<Path> sorted = paths.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : sorted) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package lars.ba.common;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.codehaus.stax2.XMLInputFactory2;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+
+/**
+ * Hält die teuren, wiederverwendbaren Parser- und Serializer-Instanzen der Anwendung.
+ * <p>
+ * ObjectMapper, FhirContext und die XML-Factories sind nach der Konfiguration threadsicher und
+ * werden geteilt. DocumentBuilder sind es nicht, deshalb bekommt jeder Thread einen eigenen,
+ * der vor jeder Verwendung zurückgesetzt wird.
+ * <p>
+ * Außerhalb von CDI (z.B. in Benchmarks) kann die Klasse direkt instanziiert werden.
+ */
+@ApplicationScoped
+public class ParserFactories {
+
+    private final ObjectMapper objectMapper;
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final ThreadLocal<DocumentBuilder> documentBuilders;
+    private final XMLInputFactory xmlInputFactory;
+    private final AsyncXMLInputFactory asyncXmlInputFactory;
+    private volatile FhirContext fhirContext;
+
+    public ParserFactories() {
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+
+        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        this.documentBuilderFactory.setNamespaceAware(true);
+        this.documentBuilders = ThreadLocal.withInitial(this::newDocumentBuilder);
+
+        // JDK-Parser fest wählen, newInstance() würde über den ServiceLoader Aalto finden
+        this.xmlInputFactory = XMLInputFactory.newDefaultFactory();
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        // CDATA wie im DOM als eigene Knoten melden (nur JDK-Parser)
+        String reportCdata = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+        if (this.xmlInputFactory.isPropertySupported(reportCdata)) {
+            this.xmlInputFactory.setProperty(reportCdata, true);
+        }
+
+        this.asyncXmlInputFactory = new InputFactoryImpl();
+        this.asyncXmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        this.asyncXmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        this.asyncXmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.asyncXmlInputFactory.setProperty(XMLInputFactory2.P_REPORT_CDATA, true);
+    }
+
+    /**
+     * ObjectMapper mit registriertem JavaTimeModule.
+     */
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * FhirContext für R4. Wird beim ersten Zugriff erzeugt, weil das Einlesen des Modells teuer ist.
+     */
+    public FhirContext fhirContext() {
+        FhirContext context = fhirContext;
+        if (context == null) {
+            synchronized (this) {
+                context = fhirContext;
+                if (context == null) {
+                    context = FhirContext.forR4();
+                    fhirContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Neuer JSON-Parser des geteilten FhirContext. Parser sind günstig, aber nicht threadsicher.
+     */
+    public IParser fhirJsonParser() {
+        return fhirContext().newJsonParser();
+    }
+
+    /**
+     * Namespace-fähiger DocumentBuilder des aktuellen Threads.
+     */
+    public DocumentBuilder documentBuilder() {
+        DocumentBuilder builder = documentBuilders.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * StAX-Factory für die CDA-Extraktion (namespace-fähig, ohne externe Entities).
+     */
+    public XMLInputFactory xmlInputFactory() {
+        return xmlInputFactory;
+    }
+
+    /**
+     * Aalto-Factory für nicht blockierendes Parsen: die Bytes werden eingespeist, sobald sie ankommen,
+     * gleich konfiguriert wie {@link #xmlInputFactory()}.
+     */
+    public AsyncXMLInputFactory asyncXmlInputFactory() {
+        return asyncXmlInputFactory;
+    }
+
+    private DocumentBuilder newDocumentBuilder() {
+        try {
+            return documentBuilderFactory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("DocumentBuilder konnte nicht erzeugt werden", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package lars.ba.common;
+
+import io.vertx.ext.web.RoutingContext;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+
+/**
+ * Merkt sich den Beginn jedes Requests, bevor RESTEasy den Body liest. Die Endpunkte berechnen daraus
+ * die Dauer des Uploads ({@link ConversionMetrics.Stage#RECEIVE}).
+ */
+public class RequestTiming {
+
+    private static final String START = RequestTiming.class.getName() + ".start";
+
+    @ServerRequestFilter(preMatching = true)
+    public void start(RoutingContext routingContext) {
+        routingContext.put(START, System.nanoTime());
+    }
+
+    /**
+     * Zeit seit Beginn des Requests, 0 wenn der Filter nicht gelaufen ist.
+     */
+    public static long elapsedNanos(RoutingContext routingContext) {
+        Long start = routingContext.get(START);
+        return start == null ? 0 : System.nanoTime() - start;
+    }
+}
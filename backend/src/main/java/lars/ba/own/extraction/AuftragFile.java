@@ -0,0 +1,360 @@
+package lars.ba.own.extraction;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spaltenorientiertes Binärformat der Tabellen eines Auftrags für den {@link AuftragStore}.
+ * <p>
+ * Jede Spalte liegt als wenige zusammenhängende Puffer in der Datei, in derselben Form wie im
+ * Speicher ({@link Column}): Strings als UTF-8-Block mit Offsets, Wörterbuch-Spalten als Wörterbuch
+ * plus int-Codes, UUIDs und Zeitstempel als Zahlen, {@code null} als Bitmaske. Am Ende steht ein
+ * Verzeichnis der Tabellen, Spalten und Puffer (Position und Länge), dahinter dessen Position.
+ * <p>
+ * Gelesen wird die Datei als Ganzes per mmap ({@link MappedTable}, {@link MappedColumn}); Werte
+ * werden erst beim Zugriff aus den Puffern gelesen. Alle Zahlen sind big-endian.
+ */
+final class AuftragFile {
+
+    private static final int MAGIC = 0x43444146; // "CDAF"
+    private static final int FORMAT = 1;
+
+    static final byte STRING = 1;
+    static final byte DICTIONARY = 2;
+    static final byte UUID = 3;
+    static final byte TIMESTAMP = 4;
+    static final byte BOOLEAN = 5;
+
+    private AuftragFile() {
+    }
+
+    static void write(DataFrames frames, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(FORMAT);
+
+            Map<String, ColumnTable> tables = frames.tables();
+            List<long[][]> buffers = new ArrayList<>();
+            for (ColumnTable table : tables.values()) {
+                for (int i = 0; i < table.columnCount(); i++) {
+                    buffers.add(writeColumn(out, table.column(i), table.rowCount()));
+                }
+            }
+
+            long directory = out.position();
+            out.putInt(tables.size());
+            int next = 0;
+            for (Map.Entry<String, ColumnTable> entry : tables.entrySet()) {
+                ColumnTable table = entry.getValue();
+                out.putString(entry.getKey());
+                out.putInt(table.rowCount());
+                out.putInt(table.columnCount());
+                for (int i = 0; i < table.columnCount(); i++) {
+                    Column column = table.column(i);
+                    long[][] columnBuffers = buffers.get(next++);
+                    out.putString(column.name());
+                    out.put(kind(column));
+                    out.put((byte) (column.isOptional() ? 1 : 0));
+                    out.put((byte) columnBuffers.length);
+                    for (long[] buffer : columnBuffers) {
+                        out.putLong(buffer[0]);
+                        out.putLong(buffer[1]);
+                    }
+                }
+            }
+            out.putLong(directory);
+            out.flush();
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Bildet die Datei in den Speicher ab. Der Kanal kann danach geschlossen werden, die Abbildung
+     * bleibt bis zur Garbage Collection des Puffers gültig.
+     */
+    static StoredAuftrag open(String auftragId, Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Auftragsdatei größer als 2 GB: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (mapped.capacity() < 16 || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT) {
+            throw new IOException("Unbekanntes Format der Auftragsdatei " + file);
+        }
+
+        long directory = mapped.getLong(mapped.capacity() - 8);
+        if (directory < 8 || directory > mapped.capacity() - 8) {
+            throw new IOException("Beschädigte Auftragsdatei " + file);
+        }
+        DataInputStream in = new DataInputStream(new ByteBufferInput(
+                mapped.slice((int) directory, mapped.capacity() - 8 - (int) directory)));
+
+        int tableCount = in.readInt();
+        List<MappedTable> tables = new ArrayList<>(tableCount);
+        for (int t = 0; t < tableCount; t++) {
+            String tableName = in.readUTF();
+            int rowCount = in.readInt();
+            MappedColumn[] columns = new MappedColumn[in.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                String name = in.readUTF();
+                byte kind = in.readByte();
+                boolean optional = in.readByte() != 0;
+                ByteBuffer[] buffers = new ByteBuffer[in.readByte()];
+                for (int b = 0; b < buffers.length; b++) {
+                    long position = in.readLong();
+                    long length = in.readLong();
+                    if (position < 8 || length < 0 || position + length > directory) {
+                        throw new IOException("Beschädigte Auftragsdatei " + file);
+                    }
+                    buffers[b] = mapped.slice((int) position, (int) length);
+                }
+                columns[i] = MappedColumn.of(name, kind, optional, buffers);
+            }
+            tables.add(new MappedTable(tableName, rowCount, columns));
+        }
+        return new StoredAuftrag(auftragId, tables);
+    }
+
+    private static byte kind(Column column) {
+        if (column instanceof Column.StringColumn) {
+            return STRING;
+        } else if (column instanceof Column.DictionaryColumn) {
+            return DICTIONARY;
+        } else if (column instanceof Column.UuidColumn) {
+            return UUID;
+        } else if (column instanceof Column.TimestampColumn) {
+            return TIMESTAMP;
+        } else if (column instanceof Column.BooleanColumn) {
+            return BOOLEAN;
+        }
+        throw new IllegalArgumentException("Nicht unterstützte Spalte: " + column.getClass().getName());
+    }
+
+    /**
+     * Schreibt die Puffer einer Spalte und liefert deren Position und Länge.
+     */
+    private static long[][] writeColumn(Output out, Column column, int rows) throws IOException {
+        return switch (kind(column)) {
+            case STRING -> writeStrings(out, column, rows);
+            case DICTIONARY -> writeDictionary(out, (Column.DictionaryColumn) column, rows);
+            case UUID -> writeUuids(out, (Column.UuidColumn) column, rows);
+            case TIMESTAMP -> writeTimestamps(out, (Column.TimestampColumn) column, rows);
+            default -> writeBooleans(out, column, rows);
+        };
+    }
+
+    /**
+     * UTF-8-Block, Offsets (long[rows + 1]) in den Block, null-Bitmaske.
+     */
+    private static long[][] writeStrings(Output out, Column column, int rows) throws IOException {
+        long[] offsets = new long[rows + 1];
+        byte[] nulls = new byte[(rows + 7) / 8];
+        long start = out.position();
+        for (int row = 0; row < rows; row++) {
+            String value = (String) column.get(row);
+            if (value == null) {
+                nulls[row >> 3] |= (byte) (1 << (row & 7));
+            } else {
+                out.put(value.getBytes(StandardCharsets.UTF_8));
+            }
+            offsets[row + 1] = out.position() - start;
+        }
+        long[] data = {start, out.position() - start};
+        long[] offsetBuffer = {out.position(), 8L * offsets.length};
+        for (long offset : offsets) {
+            out.putLong(offset);
+        }
+        long[] nullBuffer = {out.position(), nulls.length};
+        out.put(nulls);
+        return new long[][]{data, offsetBuffer, nullBuffer};
+    }
+
+    /**
+     * UTF-8-Block des Wörterbuchs, Offsets (int[n + 1]) in den Block, Codes (int[rows], -1 für null).
+     */
+    private static long[][] writeDictionary(Output out, Column.DictionaryColumn column, int rows) throws IOException {
+        int size = column.dictionarySize();
+        int[] offsets = new int[size + 1];
+        long start = out.position();
+        for (int code = 0; code < size; code++) {
+            out.put(column.lookup(code).getBytes(StandardCharsets.UTF_8));
+            long length = out.position() - start;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Wörterbuch der Spalte " + column.name() + " größer als 2 GB");
+            }
+            offsets[code + 1] = (int) length;
+        }
+        long[] data = {start, out.position() - start};
+        long[] offsetBuffer = {out.position(), 4L * offsets.length};
+        for (int offset : offsets) {
+            out.putInt(offset);
+        }
+        long[] codes = {out.position(), 4L * rows};
+        for (int row = 0; row < rows; row++) {
+            out.putInt(column.code(row));
+        }
+        return new long[][]{data, offsetBuffer, codes};
+    }
+
+    /**
+     * Je zwei longs pro Zeile, null-Bitmaske.
+     */
+    private static long[][] writeUuids(Output out, Column.UuidColumn column, int rows) throws IOException {
+        byte[] nulls = new byte[(rows + 7) / 8];
+        long[] bits = {out.position(), 16L * rows};
+        for (int row = 0; row < rows; row++) {
+            out.putLong(column.mostSignificant(row));
+            out.putLong(column.leastSignificant(row));
+            if (column.isNull(row)) {
+                nulls[row >> 3] |= (byte) (1 << (row & 7));
+            }
+        }
+        long[] nullBuffer = {out.position(), nulls.length};
+        out.put(nulls);
+        return new long[][]{bits, nullBuffer};
+    }
+
+    /**
+     * Sekunden (long[rows]), Nanosekunden (int[rows]), null-Bitmaske.
+     */
+    private static long[][] writeTimestamps(Output out, Column.TimestampColumn column, int rows) throws IOException {
+        byte[] nulls = new byte[(rows + 7) / 8];
+        long[] seconds = {out.position(), 8L * rows};
+        for (int row = 0; row < rows; row++) {
+            out.putLong(column.seconds(row));
+            if (column.isNull(row)) {
+                nulls[row >> 3] |= (byte) (1 << (row & 7));
+            }
+        }
+        long[] nanos = {out.position(), 4L * rows};
+        for (int row = 0; row < rows; row++) {
+            out.putInt(column.nanos(row));
+        }
+        long[] nullBuffer = {out.position(), nulls.length};
+        out.put(nulls);
+        return new long[][]{seconds, nanos, nullBuffer};
+    }
+
+    /**
+     * Ein Byte pro Zeile: 0 false, 1 true, 2 null.
+     */
+    private static long[][] writeBooleans(Output out, Column column, int rows) throws IOException {
+        long[] values = {out.position(), rows};
+        for (int row = 0; row < rows; row++) {
+            Boolean value = (Boolean) column.get(row);
+            out.put((byte) (value == null ? 2 : value ? 1 : 0));
+        }
+        return new long[][]{values};
+    }
+
+    /**
+     * Gepuffertes Schreiben in den Kanal mit mitgezählter Position.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return written + buffer.position();
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(bytes.length - offset, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        /**
+         * Länge in zwei Bytes und UTF-8. Für die ASCII-Namen der Tabellen und Spalten ist das dasselbe
+         * wie {@link java.io.DataOutput#writeUTF}, gelesen wird mit {@link DataInputStream#readUTF()}.
+         */
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Name zu lang: " + value);
+            }
+            ensure(2);
+            buffer.putShort((short) bytes.length);
+            put(bytes);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Liest das Verzeichnis am Dateiende über einen {@link DataInputStream}.
+     */
+    private static final class ByteBufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
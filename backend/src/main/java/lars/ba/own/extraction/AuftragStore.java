@@ -0,0 +1,144 @@
+package lars.ba.own.extraction;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Ablage abgeschlossener Aufträge im Verzeichnis {@code cda-extraction.store.directory}, eine
+ * {@link AuftragFile Auftragsdatei} {@code <auftrags_id>.auftrag} pro Auftrag.
+ * <p>
+ * Nach dem Speichern braucht der Auftrag die DataFrames nicht mehr; gelesen wird nur noch über die
+ * abgebildete Datei ({@link StoredAuftrag}). Die zuletzt benutzten {@code max-open} Aufträge werden
+ * gemerkt, damit eine Datei nicht bei jedem Zugriff neu abgebildet wird; ältere Abbildungen gibt die
+ * JVM frei, sobald niemand sie mehr hält, und {@link #open} bildet die Datei bei Bedarf erneut ab.
+ * Dateien, die älter als {@code retention-hours} sind, werden beim Speichern eines neuen Auftrags
+ * gelöscht.
+ */
+@ApplicationScoped
+public class AuftragStore {
+
+    private static final Logger LOG = Logger.getLogger(AuftragStore.class);
+    private static final String SUFFIX = ".auftrag";
+
+    private final Path directory;
+    private final Duration retention;
+    private final ConversionMetrics metrics;
+    /** zuletzt benutzte Abbildungen, Zugriff nur unter synchronized (opened) */
+    private final LinkedHashMap<String, StoredAuftrag> opened;
+
+    public AuftragStore(@ConfigProperty(name = "cda-extraction.store.directory", defaultValue = "target/auftraege") String directory,
+                        @ConfigProperty(name = "cda-extraction.store.retention-hours", defaultValue = "168") long retentionHours,
+                        @ConfigProperty(name = "cda-extraction.store.max-open", defaultValue = "32") int maxOpen,
+                        ConversionMetrics metrics) {
+        this.directory = Path.of(directory);
+        this.retention = Duration.ofHours(retentionHours);
+        this.metrics = metrics;
+        int limit = Math.max(1, maxOpen);
+        this.opened = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredAuftrag> eldest) {
+                return size() > limit;
+            }
+        };
+    }
+
+    /**
+     * Schreibt die Tabellen eines Auftrags und liefert die abgebildete Datei. Geschrieben wird in eine
+     * temporäre Datei, die erst vollständig unter ihren Namen verschoben wird.
+     */
+    StoredAuftrag save(String auftragId, DataFrames frames) throws IOException {
+        removeExpired();
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        Path file = file(auftragId);
+        Path temporary = Files.createTempFile(directory, auftragId, ".tmp");
+        try {
+            AuftragFile.write(frames, temporary);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        StoredAuftrag stored = AuftragFile.open(auftragId, file);
+        synchronized (opened) {
+            opened.put(auftragId, stored);
+        }
+        metrics.record(Stage.STORE, System.nanoTime() - start);
+        return stored;
+    }
+
+    /**
+     * Der gespeicherte Auftrag oder {@code null}, wenn es keine Datei zu der ID gibt.
+     */
+    public StoredAuftrag open(String auftragId) throws IOException {
+        if (!isAuftragId(auftragId)) {
+            return null;
+        }
+        StoredAuftrag stored;
+        synchronized (opened) {
+            stored = opened.get(auftragId);
+        }
+        if (stored != null) {
+            return stored;
+        }
+        Path file = file(auftragId);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        // gleichzeitiges Öffnen bildet die Datei höchstens doppelt ab, gemerkt wird eine
+        StoredAuftrag mapped = AuftragFile.open(auftragId, file);
+        synchronized (opened) {
+            StoredAuftrag previous = opened.putIfAbsent(auftragId, mapped);
+            return previous != null ? previous : mapped;
+        }
+    }
+
+    private static boolean isAuftragId(String auftragId) {
+        try {
+            UUID.fromString(auftragId);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Path file(String auftragId) {
+        return directory.resolve(auftragId + SUFFIX);
+    }
+
+    private void removeExpired() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Instant limit = Instant.now().minus(retention);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(limit)) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SUFFIX)) {
+                        // eine noch verwendete Abbildung bleibt gültig, bis sie eingesammelt wird
+                        synchronized (opened) {
+                            opened.remove(name.substring(0, name.length() - SUFFIX.length()));
+                        }
+                    }
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "Alte Aufträge in %s konnten nicht gelöscht werden", directory);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package lars.ba.own.extraction;
+
+/**
+ * Die Pfade aus {@link CDAConfig#XPATHS} und den Mappings in {@link CDAClassManager}, einmalig beim
+ * Laden der Klasse kompiliert.
+ */
+final class CDAPathPlans {
+
+    static final PathPlan PATIENT_ROLE = PathPlan.compile(CDAConfig.XPATHS.get("patient"));
+    static final PathPlan AUTHOR = PathPlan.compile(CDAConfig.XPATHS.get("author"));
+    static final PathPlan SECTIONS = PathPlan.compile(CDAConfig.XPATHS.get("sections"));
+
+    private static final PathPlan PATIENT_NAME = patientElement("name");
+    static final PathPlan PATIENT_GIVEN = PATIENT_NAME.then("cda:given");
+    static final PathPlan PATIENT_FAMILY = PATIENT_NAME.then("cda:family");
+    static final PathPlan PATIENT_GENDER = patientElement("gender");
+    static final PathPlan PATIENT_BIRTH_TIME = patientElement("birthTime");
+    static final PathPlan PATIENT_ID = patientAttribute("id");
+    static final PathPlan PATIENT_ID_ROOT = patientAttribute("id_root");
+
+    private static final PathPlan AUTHOR_PERSON = authorElement("person");
+    static final PathPlan AUTHOR_GIVEN = AUTHOR_PERSON.then("cda:given");
+    static final PathPlan AUTHOR_FAMILY = AUTHOR_PERSON.then("cda:family");
+    static final PathPlan AUTHOR_ORGANIZATION = authorElement("organization");
+
+    private CDAPathPlans() {
+    }
+
+    private static PathPlan patientElement(String key) {
+        return PathPlan.compile(CDAClassManager.PATIENT_MAPPING.get("elements").get(key));
+    }
+
+    private static PathPlan patientAttribute(String key) {
+        return PathPlan.compile(CDAClassManager.PATIENT_MAPPING.get("attributes").get(key));
+    }
+
+    private static PathPlan authorElement(String key) {
+        return PathPlan.compile(CDAClassManager.AUTHOR_MAPPING.get("elements").get(key));
+    }
+}
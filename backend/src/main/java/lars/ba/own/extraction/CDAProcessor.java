@@ -1,22 +1,63 @@
 package lars.ba.own.extraction;
 
+import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import lars.ba.common.ContentCache;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.ParserFactories;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 import org.w3c.dom.*;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public class CDAProcessor {
+
+    /**
+     * DOM liest jedes Dokument komplett in den Speicher, STREAM liest es mit StAX in einem Durchlauf.
+     */
+    public enum ExtractionMode {
+        DOM,
+        STREAM
+    }
+
     DataFrames dataFrames;
     private String currentAuftragId;
+    private final ExtractionMode mode;
+    private final ParserFactories parserFactories;
+    private final ContentCache<DataFrames> cache;
+    private final ConversionMetrics metrics;
 
     public CDAProcessor() {
+        this(ExtractionMode.DOM, new ParserFactories());
+    }
+
+    public CDAProcessor(ExtractionMode mode, ParserFactories parserFactories) {
+        this(mode, parserFactories, null, ConversionMetrics.noop());
+    }
+
+    /**
+     * @param cache   bereits extrahierte Dateien, {@code null} für ohne Cache; wird nur benutzt, wenn
+     *                der Cache für denselben Modus angelegt ist (der Modus gehört zu seiner Version)
+     * @param metrics Zeiten der Schritte PARSE, VALIDATE, EXTRACT und FLATTEN, entries und werte-Zeilen
+     */
+    public CDAProcessor(ExtractionMode mode, ParserFactories parserFactories, ExtractionCache cache,
+                        ConversionMetrics metrics) {
         this.dataFrames = new DataFrames();
+        this.mode = mode;
+        this.parserFactories = parserFactories;
+        this.cache = cache != null && cache.cache().isEnabled() && cache.mode() == mode ? cache.cache() : null;
+        this.metrics = metrics;
     }
 
     public String createAuftrag(String auftragsname) {
@@ -37,34 +78,296 @@ public class CDAProcessor {
         }
 
         for (FileUpload file : files) {
-            String dokumentId = UUID.randomUUID().toString();
-            Map<String, Object> cdaData;
+            dataFrames.addAll(processFileCached(file));
+        }
+    }
 
-            try (InputStream inputStream = Files.newInputStream(file.uploadedFile())) {
-                cdaData = extractCDAData(inputStream);
+    /**
+     * Verarbeitet die Dateien parallel auf dem übergebenen Executor. Jede Datei wird in ein eigenes
+     * DataFrames extrahiert, die Ergebnisse werden danach in Upload-Reihenfolge zusammengeführt.
+     */
+    public void processCDAFile(List<FileUpload> files, ExecutorService executor) throws Exception {
+        if (currentAuftragId == null) {
+            throw new IllegalStateException("Kein aktiver Auftrag - erstellen Sie zuerst einen Auftrag");
+        }
+
+        for (DataFrames result : invokeAll(files, executor, this::processFileCached)) {
+            dataFrames.addAll(result);
+        }
+    }
+
+    /**
+     * Extrahiert die Dateien parallel und übergibt jeden Eintrag direkt an einen {@link EntryListener},
+     * ohne inhalte- und werte-Zeilen aufzubauen. Jede Datei bekommt einen eigenen Listener aus
+     * {@code listenerFactory}; zurückgegeben werden die Listener in Upload-Reihenfolge.
+     */
+    public <L extends EntryListener> List<L> extractEntries(List<FileUpload> files, ExecutorService executor,
+                                                            Supplier<L> listenerFactory) throws Exception {
+        return awaitAll(submitEntries(files, executor, listenerFactory));
+    }
+
+    /**
+     * Wie {@link #extractEntries}, wartet aber nicht: die Futures stehen in Upload-Reihenfolge und
+     * liefern den Listener, sobald seine Datei fertig ist. Der Aufrufer muss bei einem Fehler oder
+     * Abbruch die übrigen Futures selbst abbrechen.
+     */
+    public <L extends EntryListener> List<Future<L>> submitEntries(List<FileUpload> files, ExecutorService executor,
+                                                                   Supplier<L> listenerFactory) {
+        if (currentAuftragId == null) {
+            throw new IllegalStateException("Kein aktiver Auftrag - erstellen Sie zuerst einen Auftrag");
+        }
+
+        return submitAll(files, executor, file -> {
+            L listener = listenerFactory.get();
+            processFile(file, listener);
+            return listener;
+        });
+    }
+
+    private interface FileTask<R> {
+        R process(FileUpload file) throws Exception;
+    }
+
+    private static <R> List<R> invokeAll(List<FileUpload> files, ExecutorService executor, FileTask<R> task)
+            throws Exception {
+        return awaitAll(submitAll(files, executor, task));
+    }
+
+    private static <R> List<Future<R>> submitAll(List<FileUpload> files, ExecutorService executor, FileTask<R> task) {
+        List<Future<R>> futures = new ArrayList<>(files.size());
+        for (FileUpload file : files) {
+            futures.add(executor.submit(() -> task.process(file)));
+        }
+        return futures;
+    }
+
+    private static <R> List<R> awaitAll(List<Future<R>> futures) throws Exception {
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
             }
+            throw e;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        return results;
+    }
 
-            processDocumentMetadata(dokumentId, file.fileName(), cdaData);
-            processPatientData(dokumentId, cdaData);
-            processAuthorData(dokumentId, cdaData);
-            processContentData(dokumentId, cdaData);
+    /**
+     * Wie {@link #processFile(FileUpload, EntryListener)} für die Tabellen, aber über den Cache: eine
+     * bereits extrahierte Datei mit gleichem Inhalt wird nur mit neuen IDs kopiert.
+     */
+    private DataFrames processFileCached(FileUpload file) throws Exception {
+        if (cache == null) {
+            return processFile(file, null);
         }
+
+        String contentHash = ContentCache.sha256(file.uploadedFile());
+        DataFrames cached = cache.get(contentHash);
+        if (cached != null) {
+            return cached.copyWithNewIds(currentAuftragId, file.fileName());
+        }
+
+        DataFrames documentFrames = processFile(file, null);
+        // wird ab hier nur noch gelesen (addAll kopiert die Zeilen)
+        cache.put(contentHash, documentFrames);
+        return documentFrames;
     }
 
-    private Map<String, Object> extractCDAData(InputStream inputStream) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(inputStream);
+    /**
+     * Extrahiert eine Datei in ein eigenes DataFrames, ohne den gemeinsamen Zustand zu verändern.
+     *
+     * @param listener bekommt die Einträge statt der inhalte-/werte-Tabellen, {@code null} für die Tabellen
+     */
+    private DataFrames processFile(FileUpload file, EntryListener listener) throws Exception {
+        String dokumentId = UUID.randomUUID().toString();
+        DataFrames documentFrames = new DataFrames();
+        EntryFlattener flattener = new EntryFlattener();
+
+        try (InputStream inputStream = Files.newInputStream(file.uploadedFile())) {
+            long start;
+            if (mode == ExtractionMode.STREAM) {
+                // Parsen und Extrahieren sind hier ein Durchlauf und zählen zusammen als EXTRACT
+                start = System.nanoTime();
+                streamCDAFile(documentFrames, flattener, listener, dokumentId, file.fileName(), inputStream);
+            } else {
+                Document doc = parseCDA(inputStream);
+
+                start = System.nanoTime();
+                Map<String, Object> cdaData = findAllEntries(doc);
+                processDocumentMetadata(documentFrames, dokumentId, file.fileName());
+                processPatientData(documentFrames, dokumentId, cdaData);
+                processAuthorData(documentFrames, dokumentId, cdaData);
+                processContentData(documentFrames, flattener, listener, dokumentId, sections(cdaData));
+            }
+            metrics.record(Stage.EXTRACT, System.nanoTime() - start - flattener.flattenNanos());
+        }
+        metrics.record(Stage.FLATTEN, flattener.flattenNanos());
+        metrics.werteRows(flattener.valueCount());
+        return documentFrames;
+    }
 
-        if (!validateCDAStructure(doc)) {
+    /**
+     * Extrahiert ein Dokument im STREAM-Modus. Die Zeilen landen im DataFrames des Dokuments und
+     * werden verworfen, wenn das Dokument die Strukturprüfung nicht besteht.
+     */
+    private void streamCDAFile(DataFrames documentFrames, EntryFlattener flattener, EntryListener listener,
+                               String dokumentId, String fileName, InputStream inputStream) throws Exception {
+        processDocumentMetadata(documentFrames, dokumentId, fileName);
+        Map<String, Object> sections = new HashMap<>();
+        CDAStreamExtractor extractor = streamExtractor(documentFrames, sections, dokumentId);
+        extractor.extract(inputStream);
+        completeStream(extractor, documentFrames, flattener, listener, dokumentId, sections);
+    }
+
+    /**
+     * Die Sections werden wie im DOM-Modus nach Code und Titel in {@code sections} gesammelt und
+     * erst in {@link #completeStream} extrahiert, damit beide Modi dieselben Zeilen liefern.
+     */
+    private CDAStreamExtractor streamExtractor(DataFrames documentFrames, Map<String, Object> sections,
+                                               String dokumentId) {
+        Document owner = parserFactories.documentBuilder().newDocument();
+        return new CDAStreamExtractor(parserFactories.xmlInputFactory(), owner, new CDAStreamExtractor.Handler() {
+            @Override
+            public void patient(Element patientRole) {
+                addPatientRow(documentFrames, dokumentId, extractPatientInfo(patientRole));
+            }
+
+            @Override
+            public void author(Element author) {
+                addAuthorRow(documentFrames, dokumentId, extractAuthor(author));
+            }
+
+            @Override
+            public void section(Element code, Element title, List<Element> entries) {
+                putSection(sections, code, title, entries);
+            }
+        });
+    }
+
+    private void completeStream(CDAStreamExtractor extractor, DataFrames documentFrames, EntryFlattener flattener,
+                                EntryListener listener, String dokumentId, Map<String, Object> sections) {
+        if (!extractor.isValidCDA()) {
             throw new IllegalArgumentException("Ungültige CDA-Dokumentstruktur");
         }
+        if (!extractor.isPatientSeen()) {
+            addPatientRow(documentFrames, dokumentId, new HashMap<>());
+        }
+        processContentData(documentFrames, flattener, listener, dokumentId, sections);
+    }
 
-        return findAllEntries(doc);
+    /**
+     * Beginnt ein Dokument, dessen Bytes stückweise eingespeist werden, während sie noch ankommen
+     * (STREAM-Modus mit dem nicht blockierenden Aalto-Parser, ohne temporäre Datei).
+     */
+    public StreamingDocument openDocument(String fileName) {
+        if (currentAuftragId == null) {
+            throw new IllegalStateException("Kein aktiver Auftrag - erstellen Sie zuerst einen Auftrag");
+        }
+        return new StreamingDocument(fileName);
     }
 
-    private void processDocumentMetadata(String dokumentId, String fileName, Map<String, Object> cdaData) {
+    /**
+     * Ein Dokument, das über {@link #feed} stückweise geparst und extrahiert wird. Die Aufrufe müssen
+     * nacheinander erfolgen (nicht gleichzeitig), dürfen aber von verschiedenen Threads kommen.
+     * Erst {@link #finish()} übernimmt die Zeilen in den Auftrag.
+     */
+    public final class StreamingDocument implements AutoCloseable {
+        private final String dokumentId = UUID.randomUUID().toString();
+        private final DataFrames documentFrames = new DataFrames();
+        private final Map<String, Object> sections = new HashMap<>();
+        private final EntryFlattener flattener = new EntryFlattener();
+        private final AsyncXMLStreamReader<AsyncByteArrayFeeder> reader;
+        private final CDAStreamExtractor extractor;
+        private final MessageDigest digest = cache != null ? ContentCache.newDigest() : null;
+        private long extractNanos;
+        private long bytes;
+        private boolean ended;
+
+        private StreamingDocument(String fileName) {
+            this.reader = parserFactories.asyncXmlInputFactory().createAsyncForByteArray();
+            processDocumentMetadata(documentFrames, dokumentId, fileName);
+            this.extractor = streamExtractor(documentFrames, sections, dokumentId);
+        }
+
+        /**
+         * Parst die Bytes und extrahiert alle damit vollständigen Teile. Das Array wird nicht behalten.
+         */
+        public void feed(byte[] data, int offset, int length) throws XMLStreamException {
+            if (ended) {
+                throw new XMLStreamException("Inhalt nach dem Dokumentende");
+            }
+            if (digest != null) {
+                digest.update(data, offset, length);
+            }
+            bytes += length;
+            long start = System.nanoTime();
+            reader.getInputFeeder().feedInput(data, offset, length);
+            ended = extractor.drain(reader);
+            extractNanos += System.nanoTime() - start;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Schließt das Dokument ab, prüft die Struktur und übernimmt die Zeilen in den Auftrag.
+         */
+        public void finish() throws XMLStreamException {
+            long start = System.nanoTime();
+            reader.getInputFeeder().endOfInput();
+            ended = ended || extractor.drain(reader);
+            if (!ended) {
+                throw new XMLStreamException("Unvollständiges XML-Dokument");
+            }
+            completeStream(extractor, documentFrames, flattener, null, dokumentId, sections);
+            extractNanos += System.nanoTime() - start;
+
+            metrics.record(Stage.EXTRACT, extractNanos - flattener.flattenNanos());
+            metrics.record(Stage.FLATTEN, flattener.flattenNanos());
+            metrics.werteRows(flattener.valueCount());
+            if (digest != null) {
+                // derselbe Schlüssel wie bei einem Multipart-Upload der Datei
+                cache.put(HexFormat.of().formatHex(digest.digest()), documentFrames);
+            }
+            dataFrames.addAll(documentFrames);
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nichts mehr zu tun, der Reader hält keine externen Ressourcen
+            }
+        }
+    }
+
+    private Document parseCDA(InputStream inputStream) throws Exception {
+        DocumentBuilder builder = parserFactories.documentBuilder();
+        long start = System.nanoTime();
+        Document doc = builder.parse(inputStream);
+        long parsed = System.nanoTime();
+        metrics.record(Stage.PARSE, parsed - start);
+
+        boolean valid = validateCDAStructure(doc);
+        metrics.record(Stage.VALIDATE, System.nanoTime() - parsed);
+        if (!valid) {
+            throw new IllegalArgumentException("Ungültige CDA-Dokumentstruktur");
+        }
+        return doc;
+    }
+
+    private void processDocumentMetadata(DataFrames target, String dokumentId, String fileName) {
         Map<String, Object> newDoc = new HashMap<>();
         newDoc.put("dokument_id", dokumentId);
         newDoc.put("auftrags_id", currentAuftragId);
@@ -72,13 +375,17 @@ public class CDAProcessor {
         newDoc.put("erstellungsdatum", LocalDateTime.now());
         newDoc.put("validiert", true);
 
-        dataFrames.addRow("dokumente", newDoc);
+        target.addRow("dokumente", newDoc);
     }
 
-    private void processPatientData(String dokumentId, Map<String, Object> cdaData) {
+    private void processPatientData(DataFrames target, String dokumentId, Map<String, Object> cdaData) {
         @SuppressWarnings("unchecked")
         Map<String, Object> patient = (Map<String, Object>) ((Map<String, Object>) cdaData.get("metadata")).get("patient");
 
+        addPatientRow(target, dokumentId, patient);
+    }
+
+    private void addPatientRow(DataFrames target, String dokumentId, Map<String, Object> patient) {
         Map<String, Object> newPatient = new HashMap<>();
         newPatient.put("patient_id", UUID.randomUUID().toString());
         newPatient.put("dokument_id", dokumentId);
@@ -89,188 +396,80 @@ public class CDAProcessor {
         newPatient.put("id", patient.get("id"));
         newPatient.put("id_root", patient.get("id_root"));
 
-        dataFrames.addRow("patienten", newPatient);
+        target.addRow("patienten", newPatient);
     }
 
-    private void processAuthorData(String dokumentId, Map<String, Object> cdaData) {
+    private void processAuthorData(DataFrames target, String dokumentId, Map<String, Object> cdaData) {
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> authors = (List<Map<String, Object>>)
                 ((Map<String, Object>) cdaData.get("metadata")).get("autoren");
 
         for (Map<String, Object> author : authors) {
-            Map<String, Object> newAuthor = new HashMap<>();
-            newAuthor.put("autor_id", UUID.randomUUID().toString());
-            newAuthor.put("dokument_id", dokumentId);
-            newAuthor.put("vorname", author.get("vorname"));
-            newAuthor.put("nachname", author.get("nachname"));
-            newAuthor.put("organisation", author.get("organisation"));
-
-            dataFrames.addRow("autoren", newAuthor);
+            addAuthorRow(target, dokumentId, author);
         }
     }
 
-    private void processContentData(String dokumentId, Map<String, Object> cdaData) {
-        @SuppressWarnings("unchecked")
-        Map<String, Map<String, Object>> sections = (Map<String, Map<String, Object>>) cdaData.get("sections");
-
-        for (Map.Entry<String, Map<String, Object>> sectionEntry : sections.entrySet()) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> sectionData = (Map<String, Object>) sectionEntry.getValue();
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> entries = (List<Map<String, Object>>) sectionData.get("entries");
-            @SuppressWarnings("unchecked")
-            Map<String, Object> meta = (Map<String, Object>) sectionData.get("meta");
-            @SuppressWarnings("unchecked")
-            Map<String, Object> code = (Map<String, Object>) meta.get("code");
-
-            for (Map<String, Object> entry : entries) {
-                String inhaltId = UUID.randomUUID().toString();
-
-                Map<String, Object> inhalt = new HashMap<>();
-                inhalt.put("inhalt_id", inhaltId);
-                inhalt.put("dokument_id", dokumentId);
-                inhalt.put("section_code", code.get("code"));
-                inhalt.put("section_title", meta.get("title"));
-                inhalt.put("codeSystem", code.get("codeSystem"));
-                inhalt.put("codeSystemName", code.get("codeSystemName"));
-
-                Map<String, Object> children = (Map<String, Object>) entry.get("children");
-                if (children != null && !children.isEmpty()) {
-                    String firstKey = children.keySet().iterator().next(); // Erster Schlüssel in children
-                    Map<String, Object> firstEntry = (Map<String, Object>) children.get(firstKey);
-
-                    if (firstEntry != null && firstEntry.containsKey("attributes")) {
-                        Map<String, Object> attributes = (Map<String, Object>) firstEntry.get("attributes");
-                        if (attributes != null && attributes.containsKey("classCode")) {
-                            inhalt.put("section_type", attributes.get("classCode")); // Nur classCode speichern
-                        }
-                    }
-                }
-
-
-                dataFrames.addRow("inhalte", inhalt);
+    private void addAuthorRow(DataFrames target, String dokumentId, Map<String, Object> author) {
+        Map<String, Object> newAuthor = new HashMap<>();
+        newAuthor.put("autor_id", UUID.randomUUID().toString());
+        newAuthor.put("dokument_id", dokumentId);
+        newAuthor.put("vorname", author.get("vorname"));
+        newAuthor.put("nachname", author.get("nachname"));
+        newAuthor.put("organisation", author.get("organisation"));
 
-                Map<String, Object> elevatedEntry = elevateChildren(entry);
-                Map<String, Object> flattenedEntry = flattenDict(elevatedEntry);
-
-                for (Map.Entry<String, Object> valueEntry : flattenedEntry.entrySet()) {
-                    String cleanedValue = cleanValue(valueEntry.getValue());
-                    if (cleanedValue != null) {
-                        Map<String, Object> wert = new HashMap<>();
-                        wert.put("wert_id", UUID.randomUUID().toString());
-                        wert.put("dokument_id", dokumentId);
-                        wert.put("inhalt_id", inhaltId);
-                        wert.put("key_path", valueEntry.getKey());
-                        wert.put("value", cleanedValue);
-
-                        dataFrames.addRow("werte", wert);
-                    }
-                }
-            }
-        }
+        target.addRow("autoren", newAuthor);
     }
 
-    private String cleanValue(Object value) {
-        if (value instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) value;
-            if (map.size() == 1 && map.containsKey("text")) {
-                return map.get("text").toString();
-            }
-            return null;
-        }
-        return value != null ? value.toString() : null;
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> sections(Map<String, Object> cdaData) {
+        return (Map<String, Object>) cdaData.get("sections");
     }
 
-    private Map<String, Object> elevateChildren(Map<String, Object> data) {
-        Map<String, Object> result = new HashMap<>(data);
-
-        if (result.containsKey("children")) {
+    private void processContentData(DataFrames target, EntryFlattener flattener, EntryListener listener, String dokumentId,
+                                    Map<String, Object> sections) {
+        for (Map.Entry<String, Object> sectionEntry : sections.entrySet()) {
             @SuppressWarnings("unchecked")
-            Map<String, Object> children = (Map<String, Object>) result.get("children");
-
-            if (children.size() == 1) {
-                Map.Entry<String, Object> child = children.entrySet().iterator().next();
-                result.put(child.getKey(), elevateChildren((Map<String, Object>) child.getValue()));
-                result.remove("children");
-            }
-        }
+            Map<String, Object> sectionData = (Map<String, Object>) sectionEntry.getValue();
+            @SuppressWarnings("unchecked")
+            List<Element> entries = (List<Element>) sectionData.get("entries");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> meta = (Map<String, Object>) sectionData.get("meta");
 
-        for (Map.Entry<String, Object> entry : new HashMap<>(result).entrySet()) {
-            if (entry.getValue() instanceof Map) {
-                result.put(entry.getKey(), elevateChildren((Map<String, Object>) entry.getValue()));
-            } else if (entry.getValue() instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) entry.getValue();
-                result.put(entry.getKey(), list.stream()
-                        .map(item -> item instanceof Map ? elevateChildren((Map<String, Object>) item) : item)
-                        .collect(Collectors.toList()));
+            for (Element entry : entries) {
+                addEntryRows(target, flattener, listener, dokumentId, meta, entry);
             }
         }
-
-        return result;
-    }
-
-    private Map<String, Object> flattenDict(Map<String, Object> data) {
-        return flattenDictHelper(data, "", ".");
     }
 
-    private Map<String, Object> flattenDictHelper(Map<String, Object> data, String parentKey, String sep) {
-        Map<String, Object> items = new HashMap<>();
-
-        for (Map.Entry<String, Object> entry : data.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-
-            if ("children".equals(key)) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> childMap = (Map<String, Object>) value;
-                items.putAll(flattenDictHelper(childMap, parentKey, sep));
-                continue;
-            }
-
-            if ("attributes".equals(key)) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> attrMap = (Map<String, Object>) value;
-                for (Map.Entry<String, Object> attr : attrMap.entrySet()) {
-                    String attrPath = parentKey.isEmpty() ? "@" + attr.getKey() :
-                            parentKey + "@" + attr.getKey();
-                    items.put(attrPath, attr.getValue());
-                }
-                continue;
-            }
-
-            if ("text".equals(key)) {
-                if (!parentKey.isEmpty()) {
-                    items.put(parentKey + "/text()", value);
-                } else {
-                    items.put(parentKey, value);
-                }
-                continue;
-            }
-
-            String newKey = parentKey.isEmpty() ? key : parentKey + sep + key;
-
-            if (value instanceof Map) {
-                items.putAll(flattenDictHelper((Map<String, Object>) value, newKey, sep));
-            } else if (value instanceof List) {
-                List<?> list = (List<?>) value;
-                for (int i = 0; i < list.size(); i++) {
-                    Object item = list.get(i);
-                    String arrayKey = key + "[" + i + "]";
-                    if (item instanceof Map) {
-                        items.putAll(flattenDictHelper((Map<String, Object>) item,
-                                parentKey.isEmpty() ? arrayKey : parentKey + sep + arrayKey, sep));
-                    } else {
-                        items.put(parentKey.isEmpty() ? arrayKey : parentKey + sep + arrayKey, item);
-                    }
-                }
-            } else {
-                items.put(newKey, value);
-            }
+    private void addEntryRows(DataFrames target, EntryFlattener flattener, EntryListener listener, String dokumentId,
+                              Map<String, Object> meta, Element entry) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> code = (Map<String, Object>) meta.get("code");
+        String inhaltId = UUID.randomUUID().toString();
+        metrics.entry((String) code.get("code"));
+
+        if (listener != null) {
+            listener.startEntry(inhaltId, (String) code.get("code"));
+            flattener.flatten(entry, listener::value);
+            listener.endEntry();
+            return;
         }
 
-        return items;
+        Map<String, Object> inhalt = new HashMap<>();
+        inhalt.put("inhalt_id", inhaltId);
+        inhalt.put("dokument_id", dokumentId);
+        inhalt.put("section_code", code.get("code"));
+        inhalt.put("section_title", meta.get("title"));
+        inhalt.put("codeSystem", code.get("codeSystem"));
+        inhalt.put("codeSystemName", code.get("codeSystemName"));
+        inhalt.put("section_type", flattener.sectionType(entry)); // Nur classCode speichern
+
+        target.addRow("inhalte", inhalt);
+
+        // wert_id, dokument_id, inhalt_id, key_path, value
+        ColumnTable werte = target.table("werte");
+        flattener.flatten(entry, (keyPath, value) ->
+                werte.appendRow(UUID.randomUUID(), dokumentId, inhaltId, keyPath, value));
     }
 
     private boolean validateCDAStructure(Document doc) {
@@ -297,18 +496,19 @@ public class CDAProcessor {
     }
 
     private Map<String, Object> extractPatientInfo(Document doc) {
+        return extractPatientInfo(CDAPathPlans.PATIENT_ROLE.first(doc.getDocumentElement()));
+    }
+
+    private Map<String, Object> extractPatientInfo(Element patientRole) {
         Map<String, Object> patientInfo = new HashMap<>();
-        Element patientRole = (Element) doc.getElementsByTagNameNS(CDAConfig.NS.get("cda"), "patientRole").item(0);
 
         if (patientRole != null) {
-            Map<String, String> mapping = CDAClassManager.PATIENT_MAPPING.get("elements");
-
-            patientInfo.put("vorname", safeExtract(patientRole, mapping.get("name") + "/cda:given", null));
-            patientInfo.put("nachname", safeExtract(patientRole, mapping.get("name") + "/cda:family", null));
-            patientInfo.put("geschlecht_code", safeExtract(patientRole, mapping.get("gender"), "code"));
-            patientInfo.put("geburtsdatum", safeExtract(patientRole, mapping.get("birthTime"), "value"));
-            patientInfo.put("id", safeExtract(patientRole, CDAClassManager.PATIENT_MAPPING.get("attributes").get("id"), "extension"));
-            patientInfo.put("id_root", safeExtract(patientRole, CDAClassManager.PATIENT_MAPPING.get("attributes").get("id_root"), "root"));
+            patientInfo.put("vorname", CDAPathPlans.PATIENT_GIVEN.extract(patientRole, null));
+            patientInfo.put("nachname", CDAPathPlans.PATIENT_FAMILY.extract(patientRole, null));
+            patientInfo.put("geschlecht_code", CDAPathPlans.PATIENT_GENDER.extract(patientRole, "code"));
+            patientInfo.put("geburtsdatum", CDAPathPlans.PATIENT_BIRTH_TIME.extract(patientRole, "value"));
+            patientInfo.put("id", CDAPathPlans.PATIENT_ID.extract(patientRole, "extension"));
+            patientInfo.put("id_root", CDAPathPlans.PATIENT_ID_ROOT.extract(patientRole, "root"));
         }
 
         return patientInfo;
@@ -316,29 +516,26 @@ public class CDAProcessor {
 
     private List<Map<String, Object>> extractAuthorInfo(Document doc) {
         List<Map<String, Object>> authors = new ArrayList<>();
-        NodeList authorNodes = doc.getElementsByTagNameNS(CDAConfig.NS.get("cda"), "author");
-
-        for (int i = 0; i < authorNodes.getLength(); i++) {
-            Element author = (Element) authorNodes.item(i);
-            Map<String, String> mapping = CDAClassManager.AUTHOR_MAPPING.get("elements");
-
-            Map<String, Object> authorData = new HashMap<>();
-            authorData.put("vorname", safeExtract(author, mapping.get("person") + "/cda:given", null));
-            authorData.put("nachname", safeExtract(author, mapping.get("person") + "/cda:family", null));
-            authorData.put("organisation", safeExtract(author, mapping.get("organization"), null));
 
-            authors.add(authorData);
+        for (Element author : CDAPathPlans.AUTHOR.all(doc.getDocumentElement())) {
+            authors.add(extractAuthor(author));
         }
 
         return authors;
     }
 
+    private Map<String, Object> extractAuthor(Element author) {
+        Map<String, Object> authorData = new HashMap<>();
+        authorData.put("vorname", CDAPathPlans.AUTHOR_GIVEN.extract(author, null));
+        authorData.put("nachname", CDAPathPlans.AUTHOR_FAMILY.extract(author, null));
+        authorData.put("organisation", CDAPathPlans.AUTHOR_ORGANIZATION.extract(author, null));
+
+        return authorData;
+    }
+
     private Map<String, Object> processSections(Document doc) {
         Map<String, Object> sectionsDict = new HashMap<>();
-        NodeList sections = doc.getElementsByTagNameNS(CDAConfig.NS.get("cda"), "section");
-
-        for (int i = 0; i < sections.getLength(); i++) {
-            Element section = (Element) sections.item(i);
+        for (Element section : CDAPathPlans.SECTIONS.all(doc.getDocumentElement())) {
             // Only process direct children of the section
             if (section.getParentNode().getNodeName().contains("section")) {
                 continue; // Skip nested sections
@@ -347,142 +544,62 @@ public class CDAProcessor {
             Element sectionCode = (Element) section.getElementsByTagNameNS(CDAConfig.NS.get("cda"), "code").item(0);
             Element sectionTitle = (Element) section.getElementsByTagNameNS(CDAConfig.NS.get("cda"), "title").item(0);
 
-            String sectionKey = (sectionCode != null ? sectionCode.getAttribute("code") : "no-code")
-                    + "_" + (sectionTitle != null ? sectionTitle.getTextContent() : "no-title");
-
-            Map<String, Object> sectionData = new HashMap<>();
-
-            // Process meta information
-            Map<String, Object> meta = new HashMap<>();
-            if (sectionCode != null) {
-                Map<String, String> codeAttrs = new HashMap<>();
-                NamedNodeMap attributes = sectionCode.getAttributes();
-                for (int j = 0; j < attributes.getLength(); j++) {
-                    Node attr = attributes.item(j);
-                    codeAttrs.put(attr.getNodeName(), attr.getNodeValue());
-                }
-                meta.put("code", codeAttrs);
-            } else {
-                meta.put("code", new HashMap<>());
-            }
-            meta.put("title", sectionTitle != null ? sectionTitle.getTextContent() : null);
-            sectionData.put("meta", meta);
-
             // Process only direct entry children
-            List<Map<String, Object>> entries = new ArrayList<>();
+            List<Element> entries = new ArrayList<>();
             NodeList childNodes = section.getChildNodes();
             for (int j = 0; j < childNodes.getLength(); j++) {
                 Node node = childNodes.item(j);
                 if (node.getNodeType() == Node.ELEMENT_NODE
                         && node.getLocalName().equals("entry")
                         && node.getNamespaceURI().equals(CDAConfig.NS.get("cda"))) {
-                    entries.add(processEntry((Element) node));
+                    entries.add((Element) node);
                 }
             }
-            sectionData.put("entries", entries);
-            sectionsDict.put(sectionKey, sectionData);
+            putSection(sectionsDict, sectionCode, sectionTitle, entries);
         }
         return sectionsDict;
     }
 
-    private Map<String, Object> processEntry(Element entryElement) {
-        return processElement(entryElement);
+    /**
+     * Legt eine Section unter "Code_Titel" ab. Eine spätere Section mit gleichem Schlüssel ersetzt die
+     * frühere samt ihren Einträgen.
+     */
+    private static void putSection(Map<String, Object> sectionsDict, Element sectionCode, Element sectionTitle,
+                                   List<Element> entries) {
+        String sectionKey = (sectionCode != null ? sectionCode.getAttribute("code") : "no-code")
+                + "_" + (sectionTitle != null ? sectionTitle.getTextContent() : "no-title");
+
+        Map<String, Object> sectionData = new HashMap<>();
+        sectionData.put("meta", sectionMeta(sectionCode, sectionTitle));
+        sectionData.put("entries", entries);
+        sectionsDict.put(sectionKey, sectionData);
     }
 
-    private Map<String, Object> processElement(Element element) {
-        Map<String, Object> result = new HashMap<>();
-
-        // Process attributes
-        if (element.getAttributes().getLength() > 0) {
-            Map<String, String> attributes = new HashMap<>();
-            NamedNodeMap attrs = element.getAttributes();
-            for (int i = 0; i < attrs.getLength(); i++) {
-                Node attr = attrs.item(i);
-                String name = attr.getNodeName();
-                if (name.contains(":")) {
-                    name = name.split(":", 2)[1];
-                }
-                attributes.put(name, attr.getNodeValue());
-            }
-            result.put("attributes", attributes);
-        }
-
-        // Process text content
-        String text = element.getTextContent().trim();
-        if (!text.isEmpty() && element.getChildNodes().getLength() == 1) {
-            result.put("text", text);
-        }
-
-        // Process children
-        Map<String, Object> children = new HashMap<>();
-        NodeList childNodes = element.getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node child = childNodes.item(i);
-            if (child.getNodeType() == Node.ELEMENT_NODE) {
-                Element childElement = (Element) child;
-                String tagName = childElement.getTagName();
-                if (tagName.contains(":")) {
-                    tagName = tagName.split(":", 2)[1];
-                }
-
-                Map<String, Object> childContent = processElement(childElement);
-                if (!childContent.isEmpty()) {
-                    if (children.containsKey(tagName)) {
-                        Object existing = children.get(tagName);
-                        if (existing instanceof List) {
-                            ((List<Map<String, Object>>) existing).add(childContent);
-                        } else {
-                            List<Map<String, Object>> list = new ArrayList<>();
-                            list.add((Map<String, Object>) existing);
-                            list.add(childContent);
-                            children.put(tagName, list);
-                        }
-                    } else {
-                        children.put(tagName, childContent);
-                    }
-                }
+    /**
+     * Baut die Meta-Informationen (Code-Attribute und Titel) einer Section.
+     */
+    private static Map<String, Object> sectionMeta(Element sectionCode, Element sectionTitle) {
+        Map<String, Object> meta = new HashMap<>();
+        if (sectionCode != null) {
+            Map<String, String> codeAttrs = new HashMap<>();
+            NamedNodeMap attributes = sectionCode.getAttributes();
+            for (int j = 0; j < attributes.getLength(); j++) {
+                Node attr = attributes.item(j);
+                codeAttrs.put(attr.getNodeName(), attr.getNodeValue());
             }
+            meta.put("code", codeAttrs);
+        } else {
+            meta.put("code", new HashMap<>());
         }
-
-        if (!children.isEmpty()) {
-            result.put("children", children);
-        }
-
-        return result;
+        meta.put("title", sectionTitle != null ? sectionTitle.getTextContent() : null);
+        return meta;
     }
 
-    private String safeExtract(Element element, String path, String attr) {
-        try {
-            // Simple XPath-like navigation (basic implementation)
-            String[] parts = path.split("/");
-            Element current = element;
-
-            for (String part : parts) {
-                if (current == null) return "";
-
-                if (part.contains(":")) {
-                    String[] nsAndName = part.split(":");
-                    NodeList nodes = current.getElementsByTagNameNS(CDAConfig.NS.get(nsAndName[0]), nsAndName[1]);
-                    if (nodes.getLength() == 0) return "";
-                    current = (Element) nodes.item(0);
-                } else {
-                    NodeList nodes = current.getElementsByTagName(part);
-                    if (nodes.getLength() == 0) return "";
-                    current = (Element) nodes.item(0);
-                }
-            }
-
-            if (attr != null) {
-                return current.getAttribute(attr).trim();
-            } else {
-                return current.getTextContent().trim();
-            }
-        } catch (Exception e) {
-            return "";
-        }
+    DataFrames getDataFrames() {
+        return dataFrames;
     }
 
     public Map<String, List<Map<String, Object>>> getData() {
-        return dataFrames.data;
+        return dataFrames.asMap();
     }
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+package lars.ba.own.extraction;
+
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Liest ein CDA-Dokument mit StAX in einem einzigen Durchlauf.
+ * <p>
+ * Es wird nie das ganze Dokument als DOM aufgebaut. Nur die Teilbäume, die für die Extraktion
+ * gebraucht werden (erste patientRole unter recordTarget, jeder author, Code/Titel einer Section und
+ * jeder direkte entry einer Section), werden als kleine DOM-Fragmente nachgebaut und an den
+ * {@link Handler} übergeben. Danach sind sie wieder frei.
+ * <p>
+ * Die entries einer Section werden erst mit dem Ende der Section übergeben. Wie im DOM-Modus sind
+ * Code und Titel dann das erste code- bzw. title-Element irgendwo in der Section, auch wenn es erst
+ * nach den Einträgen steht.
+ */
+class CDAStreamExtractor {
+
+    interface Handler {
+        void patient(Element patientRole);
+
+        void author(Element author);
+
+        /**
+         * Eine Section mit ihren direkten entries, nach dem Ende der Section.
+         *
+         * @param code  erstes code-Element der Section oder {@code null}
+         * @param title erstes title-Element der Section oder {@code null}
+         */
+        void section(Element code, Element title, List<Element> entries);
+    }
+
+    private static final String CDA_NS = CDAConfig.NS.get("cda");
+
+    private final XMLInputFactory inputFactory;
+    private final Document owner;
+    private final Handler handler;
+
+    private final List<Capture> captures = new ArrayList<>();
+    private final Deque<SectionFrame> sections = new ArrayDeque<>();
+    private final Deque<String> openElements = new ArrayDeque<>();
+
+    private boolean patientSeen;
+    /** Tiefe des offenen recordTarget, -1 außerhalb */
+    private int recordTargetDepth = -1;
+    private boolean recordTargetSeen;
+    private boolean authorSeen;
+    private boolean structuredBodySeen;
+
+    /**
+     * @param owner leeres Dokument, das nur als Fabrik für die Fragment-Knoten dient
+     */
+    CDAStreamExtractor(XMLInputFactory inputFactory, Document owner, Handler handler) {
+        this.inputFactory = inputFactory;
+        this.owner = owner;
+        this.handler = handler;
+    }
+
+    /**
+     * Verarbeitet das komplette Dokument. Die Handler-Aufrufe erfolgen während des Lesens.
+     */
+    void extract(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+        try {
+            while (reader.hasNext()) {
+                onEvent(reader, reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Verarbeitet alle Events, die ein asynchroner Reader aus den bisher eingespeisten Bytes bilden
+     * kann. Das Ergebnis ist dasselbe wie bei {@link #extract(InputStream)} über das ganze Dokument.
+     *
+     * @return {@code true}, wenn das Dokumentende erreicht ist
+     */
+    boolean drain(AsyncXMLStreamReader<?> reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+                return false;
+            }
+            onEvent(reader, event);
+        }
+        return true;
+    }
+
+    /**
+     * Verarbeitet das Event, auf dem der Reader gerade steht.
+     */
+    void onEvent(XMLStreamReader reader, int event) {
+        switch (event) {
+            case XMLStreamConstants.START_ELEMENT -> startElement(reader);
+            case XMLStreamConstants.END_ELEMENT -> endElement();
+            case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                if (!captures.isEmpty()) {
+                    String text = reader.getText();
+                    for (Capture capture : captures) {
+                        capture.text(text);
+                    }
+                }
+            }
+            case XMLStreamConstants.CDATA -> {
+                for (Capture capture : captures) {
+                    capture.append(owner.createCDATASection(reader.getText()));
+                }
+            }
+            case XMLStreamConstants.COMMENT -> {
+                for (Capture capture : captures) {
+                    capture.append(owner.createComment(reader.getText()));
+                }
+            }
+            case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                for (Capture capture : captures) {
+                    capture.append(owner.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                }
+            }
+            default -> {
+                // Dokumentanfang/-ende, DTD usw. sind für die Extraktion ohne Bedeutung
+            }
+        }
+    }
+
+    /**
+     * Entspricht der Prüfung in {@code CDAProcessor.validateCDAStructure}, ist aber erst nach dem
+     * letzten Event aussagekräftig.
+     */
+    boolean isValidCDA() {
+        return recordTargetSeen && authorSeen && structuredBodySeen;
+    }
+
+    boolean isPatientSeen() {
+        return patientSeen;
+    }
+
+    private void startElement(XMLStreamReader reader) {
+        String parentName = openElements.peek();
+        String qualifiedName = qualifiedName(reader.getPrefix(), reader.getLocalName());
+        openElements.push(qualifiedName);
+        int depth = openElements.size();
+
+        for (Capture capture : captures) {
+            capture.start(createElement(reader));
+        }
+
+        if (!CDA_NS.equals(reader.getNamespaceURI())) {
+            return;
+        }
+
+        switch (reader.getLocalName()) {
+            case "recordTarget" -> {
+                recordTargetSeen = true;
+                recordTargetDepth = depth;
+            }
+            case "structuredBody" -> structuredBodySeen = true;
+            case "patientRole" -> {
+                // wie der Pfad .//cda:recordTarget/cda:patientRole im DOM-Modus
+                if (!patientSeen && recordTargetDepth == depth - 1) {
+                    patientSeen = true;
+                    begin(reader, handler::patient);
+                }
+            }
+            case "author" -> {
+                authorSeen = true;
+                begin(reader, handler::author);
+            }
+            case "section" -> {
+                // gleiche Prüfung wie im DOM-Modus: Sections mit einem "section"-Elternknoten überspringen
+                boolean skipped = parentName != null && parentName.contains("section");
+                sections.push(new SectionFrame(depth, skipped));
+            }
+            case "code" -> {
+                // das Fragment wird schon beim Start-Element vergeben und bis zum Section-Ende gefüllt,
+                // ein code innerhalb des code zählt so nicht als erstes
+                List<SectionFrame> waiting = waitingSections(frame -> frame.code == null);
+                if (!waiting.isEmpty()) {
+                    Element code = begin(reader, ignored -> {
+                    });
+                    waiting.forEach(frame -> frame.code = code);
+                }
+            }
+            case "title" -> {
+                List<SectionFrame> waiting = waitingSections(frame -> frame.title == null);
+                if (!waiting.isEmpty()) {
+                    Element title = begin(reader, ignored -> {
+                    });
+                    waiting.forEach(frame -> frame.title = title);
+                }
+            }
+            case "entry" -> {
+                SectionFrame section = sections.peek();
+                if (section != null && !section.skipped && section.depth == depth - 1) {
+                    begin(reader, section.entries::add);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void endElement() {
+        List<Capture> completed = null;
+        for (int i = captures.size() - 1; i >= 0; i--) {
+            Capture capture = captures.get(i);
+            if (capture.end()) {
+                captures.remove(i);
+                if (completed == null) {
+                    completed = new ArrayList<>(1);
+                }
+                completed.add(capture);
+            }
+        }
+        if (completed != null) {
+            for (Capture capture : completed) {
+                capture.complete();
+            }
+        }
+
+        SectionFrame section = sections.peek();
+        if (section != null && section.depth == openElements.size()) {
+            sections.pop();
+            if (!section.skipped) {
+                handler.section(section.code, section.title, section.entries);
+            }
+        }
+        if (recordTargetDepth == openElements.size()) {
+            recordTargetDepth = -1;
+        }
+        openElements.pop();
+    }
+
+    private Element begin(XMLStreamReader reader, Consumer<Element> onComplete) {
+        Element root = createElement(reader);
+        captures.add(new Capture(owner, root, onComplete));
+        return root;
+    }
+
+    private List<SectionFrame> waitingSections(Predicate<SectionFrame> missing) {
+        List<SectionFrame> waiting = new ArrayList<>(1);
+        for (SectionFrame frame : sections) {
+            if (missing.test(frame)) {
+                waiting.add(frame);
+            }
+        }
+        return waiting;
+    }
+
+    private Element createElement(XMLStreamReader reader) {
+        Element element = owner.createElementNS(reader.getNamespaceURI(),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        // Namespace-Deklarationen sind im DOM ebenfalls Attribute
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String name = prefix == null || prefix.isEmpty()
+                    ? XMLConstants.XMLNS_ATTRIBUTE
+                    : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String namespace = reader.getAttributeNamespace(i);
+            element.setAttributeNS(namespace == null || namespace.isEmpty() ? null : namespace,
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    /**
+     * Baut einen Teilbaum als DOM-Fragment nach, bis das Start-Element wieder geschlossen wird.
+     */
+    private static final class Capture {
+        private final Document owner;
+        private final Element root;
+        private final Consumer<Element> onComplete;
+        private final Deque<Element> stack = new ArrayDeque<>();
+
+        Capture(Document owner, Element root, Consumer<Element> onComplete) {
+            this.owner = owner;
+            this.root = root;
+            this.onComplete = onComplete;
+            stack.push(root);
+        }
+
+        void start(Element element) {
+            stack.peek().appendChild(element);
+            stack.push(element);
+        }
+
+        void append(Node node) {
+            stack.peek().appendChild(node);
+        }
+
+        void text(String text) {
+            // StAX darf Text in mehrere Events aufteilen, das DOM hat dafür einen Knoten
+            Node last = stack.peek().getLastChild();
+            if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+                ((Text) last).appendData(text);
+            } else {
+                stack.peek().appendChild(owner.createTextNode(text));
+            }
+        }
+
+        boolean end() {
+            stack.pop();
+            return stack.isEmpty();
+        }
+
+        void complete() {
+            onComplete.accept(root);
+        }
+    }
+
+    private static final class SectionFrame {
+        private final int depth;
+        private final boolean skipped;
+        private final List<Element> entries = new ArrayList<>();
+        private Element code;
+        private Element title;
+
+        SectionFrame(int depth, boolean skipped) {
+            this.depth = depth;
+            this.skipped = skipped;
+        }
+    }
+}
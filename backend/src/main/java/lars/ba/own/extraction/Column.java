@@ -0,0 +1,374 @@
+package lars.ba.own.extraction;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Eine Spalte einer {@link ColumnTable}. Jede Implementierung speichert ihre Werte in einem
+ * eigenen, typisierten Array und wächst bei Bedarf.
+ */
+abstract class Column {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String name;
+    private final boolean optional;
+    protected int size;
+
+    Column(String name, boolean optional) {
+        this.name = name;
+        this.optional = optional;
+    }
+
+    static Column string(String name) {
+        return new StringColumn(name, false);
+    }
+
+    static Column dictionary(String name) {
+        return new DictionaryColumn(name, false);
+    }
+
+    /**
+     * Wörterbuch-Spalte, deren Schlüssel in der Zeilenansicht fehlt, wenn kein Wert gesetzt ist.
+     */
+    static Column optionalDictionary(String name) {
+        return new DictionaryColumn(name, true);
+    }
+
+    static Column uuid(String name) {
+        return new UuidColumn(name);
+    }
+
+    static Column timestamp(String name) {
+        return new TimestampColumn(name);
+    }
+
+    static Column bool(String name) {
+        return new BooleanColumn(name);
+    }
+
+    String name() {
+        return name;
+    }
+
+    boolean isOptional() {
+        return optional;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hängt einen Wert an. {@code null} ist in jeder Spalte erlaubt.
+     */
+    abstract void append(Object value);
+
+    abstract Object get(int row);
+
+    /**
+     * Übernimmt eine Zeile aus einer Spalte gleichen Typs, ohne den Wert als Objekt zu erzeugen.
+     */
+    abstract void appendFrom(Column other, int row);
+
+    /**
+     * Grobe Schätzung des belegten Speichers in Bytes (für den Größenabgleich im Cache).
+     */
+    abstract long estimatedBytes();
+
+    static long stringBytes(String value) {
+        return value == null ? 0 : 40L + 2L * value.length();
+    }
+
+    static int grow(int capacity, int required) {
+        return Math.max(required, Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1)));
+    }
+
+    static final class StringColumn extends Column {
+        private String[] values = new String[0];
+
+        StringColumn(String name, boolean optional) {
+            super(name, optional);
+        }
+
+        @Override
+        void append(Object value) {
+            appendString((String) value);
+        }
+
+        void appendString(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        String get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void appendFrom(Column other, int row) {
+            appendString(((StringColumn) other).values[row]);
+        }
+
+        @Override
+        long estimatedBytes() {
+            long bytes = 16L + 8L * values.length;
+            for (int row = 0; row < size; row++) {
+                bytes += stringBytes(values[row]);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Speichert pro Zeile nur einen int-Code; jeder unterschiedliche String liegt genau einmal
+     * im Wörterbuch der Spalte.
+     */
+    static final class DictionaryColumn extends Column {
+        private static final int NULL_CODE = -1;
+
+        private int[] codes = new int[0];
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+
+        DictionaryColumn(String name, boolean optional) {
+            super(name, optional);
+        }
+
+        @Override
+        void append(Object value) {
+            appendCode(encode((String) value));
+        }
+
+        private int encode(String value) {
+            if (value == null) {
+                return NULL_CODE;
+            }
+            Integer code = index.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                index.put(value, code);
+            }
+            return code;
+        }
+
+        private void appendCode(int code) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length, size + 1));
+            }
+            codes[size++] = code;
+        }
+
+        @Override
+        String get(int row) {
+            int code = codes[row];
+            return code == NULL_CODE ? null : dictionary.get(code);
+        }
+
+        int code(int row) {
+            return codes[row];
+        }
+
+        int dictionarySize() {
+            return dictionary.size();
+        }
+
+        String lookup(int code) {
+            return dictionary.get(code);
+        }
+
+        @Override
+        void appendFrom(Column other, int row) {
+            DictionaryColumn source = (DictionaryColumn) other;
+            int code = source.codes[row];
+            appendCode(code == NULL_CODE ? NULL_CODE : encode(source.dictionary.get(code)));
+        }
+
+        @Override
+        long estimatedBytes() {
+            // Code-Array plus jeder Wörterbuch-Eintrag in Liste und Index
+            long bytes = 16L + 4L * codes.length;
+            for (String value : dictionary) {
+                bytes += stringBytes(value) + 48L;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Zufällige IDs werden als zwei longs statt als 36-stelliger String gespeichert.
+     */
+    static final class UuidColumn extends Column {
+        private long[] mostSignificant = new long[0];
+        private long[] leastSignificant = new long[0];
+        private final BitSet nulls = new BitSet();
+
+        UuidColumn(String name) {
+            super(name, false);
+        }
+
+        @Override
+        void append(Object value) {
+            if (value == null) {
+                appendBits(0L, 0L);
+                nulls.set(size - 1);
+            } else {
+                UUID uuid = value instanceof UUID id ? id : UUID.fromString((String) value);
+                appendBits(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            }
+        }
+
+        private void appendBits(long most, long least) {
+            if (size == mostSignificant.length) {
+                int capacity = grow(mostSignificant.length, size + 1);
+                mostSignificant = Arrays.copyOf(mostSignificant, capacity);
+                leastSignificant = Arrays.copyOf(leastSignificant, capacity);
+            }
+            mostSignificant[size] = most;
+            leastSignificant[size] = least;
+            size++;
+        }
+
+        @Override
+        String get(int row) {
+            return nulls.get(row) ? null : new UUID(mostSignificant[row], leastSignificant[row]).toString();
+        }
+
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        long mostSignificant(int row) {
+            return mostSignificant[row];
+        }
+
+        long leastSignificant(int row) {
+            return leastSignificant[row];
+        }
+
+        @Override
+        void appendFrom(Column other, int row) {
+            UuidColumn source = (UuidColumn) other;
+            appendBits(source.mostSignificant[row], source.leastSignificant[row]);
+            if (source.nulls.get(row)) {
+                nulls.set(size - 1);
+            }
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 32L + 16L * mostSignificant.length + nulls.size() / 8;
+        }
+    }
+
+    /**
+     * Zeitstempel als Sekunden und Nanosekunden seit der Epoche (ohne Zeitzone, wie LocalDateTime).
+     */
+    static final class TimestampColumn extends Column {
+        private long[] seconds = new long[0];
+        private int[] nanos = new int[0];
+        private final BitSet nulls = new BitSet();
+
+        TimestampColumn(String name) {
+            super(name, false);
+        }
+
+        @Override
+        void append(Object value) {
+            if (value == null) {
+                appendParts(0L, 0);
+                nulls.set(size - 1);
+            } else {
+                LocalDateTime timestamp = (LocalDateTime) value;
+                appendParts(timestamp.toEpochSecond(ZoneOffset.UTC), timestamp.getNano());
+            }
+        }
+
+        private void appendParts(long second, int nano) {
+            if (size == seconds.length) {
+                int capacity = grow(seconds.length, size + 1);
+                seconds = Arrays.copyOf(seconds, capacity);
+                nanos = Arrays.copyOf(nanos, capacity);
+            }
+            seconds[size] = second;
+            nanos[size] = nano;
+            size++;
+        }
+
+        @Override
+        LocalDateTime get(int row) {
+            return nulls.get(row) ? null : LocalDateTime.ofEpochSecond(seconds[row], nanos[row], ZoneOffset.UTC);
+        }
+
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        long seconds(int row) {
+            return seconds[row];
+        }
+
+        int nanos(int row) {
+            return nanos[row];
+        }
+
+        @Override
+        void appendFrom(Column other, int row) {
+            TimestampColumn source = (TimestampColumn) other;
+            appendParts(source.seconds[row], source.nanos[row]);
+            if (source.nulls.get(row)) {
+                nulls.set(size - 1);
+            }
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 32L + 12L * seconds.length + nulls.size() / 8;
+        }
+    }
+
+    static final class BooleanColumn extends Column {
+        private final BitSet values = new BitSet();
+        private final BitSet nulls = new BitSet();
+
+        BooleanColumn(String name) {
+            super(name, false);
+        }
+
+        @Override
+        void append(Object value) {
+            if (value == null) {
+                nulls.set(size);
+            } else if ((Boolean) value) {
+                values.set(size);
+            }
+            size++;
+        }
+
+        @Override
+        Boolean get(int row) {
+            return nulls.get(row) ? null : values.get(row);
+        }
+
+        @Override
+        void appendFrom(Column other, int row) {
+            append(other.get(row));
+        }
+
+        @Override
+        long estimatedBytes() {
+            return 32L + (values.size() + nulls.size()) / 8;
+        }
+    }
+}
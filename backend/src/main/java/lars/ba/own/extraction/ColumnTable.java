@@ -0,0 +1,181 @@
+package lars.ba.own.extraction;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Spaltenorientierte Tabelle mit festem Schema. Zeilen werden nicht als Map gespeichert; über
+ * {@link #rows()} gibt es aber eine Zeilenansicht, die sich wie {@code List<Map<String, Object>>}
+ * verhält (z.B. für die JSON-Serialisierung).
+ */
+class ColumnTable {
+
+    private final Column[] columns;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private int rowCount;
+
+    ColumnTable(Column... columns) {
+        this.columns = columns;
+        for (int i = 0; i < columns.length; i++) {
+            columnIndex.put(columns[i].name(), i);
+        }
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    int columnCount() {
+        return columns.length;
+    }
+
+    Column column(int index) {
+        return columns[index];
+    }
+
+    Column column(String name) {
+        Integer index = columnIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Unbekannte Spalte: " + name);
+        }
+        return columns[index];
+    }
+
+    /**
+     * Hängt eine Zeile an. Die Werte müssen in der Reihenfolge des Schemas übergeben werden.
+     */
+    void appendRow(Object... values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Erwartet " + columns.length + " Werte, erhalten " + values.length);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(values[i]);
+        }
+        rowCount++;
+    }
+
+    /**
+     * Hängt eine Zeile aus einer Map an. Fehlende Spalten werden mit {@code null} gefüllt.
+     */
+    void addRow(Map<String, Object> row) {
+        for (String key : row.keySet()) {
+            if (!columnIndex.containsKey(key)) {
+                throw new IllegalArgumentException("Unbekannte Spalte: " + key);
+            }
+        }
+        for (Column column : columns) {
+            column.append(row.get(column.name()));
+        }
+        rowCount++;
+    }
+
+    void addAll(ColumnTable other) {
+        for (int row = 0; row < other.rowCount; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].appendFrom(other.columns[i], row);
+            }
+        }
+        rowCount += other.rowCount;
+    }
+
+    long estimatedBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += column.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    List<Map<String, Object>> rows() {
+        return new AbstractList<>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                if (index < 0 || index >= rowCount) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return new RowView(index);
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
+    }
+
+    /**
+     * Unveränderliche Sicht auf eine Zeile. Werte werden erst beim Zugriff aus den Spalten gelesen.
+     */
+    private final class RowView extends AbstractMap<String, Object> {
+        private final int row;
+
+        RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer index = columnIndex.get(key);
+            return index == null ? null : columns[index].get(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Integer index = columnIndex.get(key);
+            return index != null && (!columns[index].isOptional() || columns[index].get(row) != null);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            int i = from;
+                            while (i < columns.length && columns[i].isOptional() && columns[i].get(row) == null) {
+                                i++;
+                            }
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Column column = columns[next];
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(column.name(), column.get(row));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Column column : columns) {
+                        if (!column.isOptional() || column.get(row) != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+}
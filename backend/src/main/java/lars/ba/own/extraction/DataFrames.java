@@ -1,32 +1,163 @@
 package lars.ba.own.extraction;
 
-import java.util.ArrayList;
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
+/**
+ * Die Tabellen eines Auftrags. Nicht threadsicher: bei paralleler Verarbeitung bekommt jedes Dokument
+ * ein eigenes DataFrames, das anschließend mit {@link #addAll(DataFrames)} übernommen wird.
+ * <p>
+ * Die Tabellen sind spaltenorientiert gespeichert ({@link ColumnTable}). IDs, die sich oft
+ * wiederholen (dokument_id, inhalt_id, key_path, ...), liegen dabei nur einmal pro Tabelle im
+ * Wörterbuch der Spalte.
+ */
 class DataFrames {
-    Map<String, List<Map<String, Object>>> data;
+    /**
+     * IDs, auf die andere Tabellen verweisen: beim Kopieren überall auf dieselbe neue ID abgebildet.
+     */
+    private static final Set<String> LINKED_IDS = Set.of("dokument_id", "inhalt_id");
+    /**
+     * IDs, die nur in ihrer eigenen Zeile stehen: beim Kopieren einfach neu vergeben.
+     */
+    private static final Set<String> ROW_IDS = Set.of("patient_id", "autor_id", "wert_id");
+
+    private final Map<String, ColumnTable> tables;
 
     public DataFrames() {
-        this.data = new HashMap<>();
+        this.tables = new LinkedHashMap<>();
         initializeDataFrames();
     }
 
     private void initializeDataFrames() {
-        data.put("auftraege", new ArrayList<>());
-        data.put("dokumente", new ArrayList<>());
-        data.put("patienten", new ArrayList<>());
-        data.put("autoren", new ArrayList<>());
-        data.put("inhalte", new ArrayList<>());
-        data.put("werte", new ArrayList<>());
+        tables.put("auftraege", new ColumnTable(
+                Column.string("auftrags_id"),
+                Column.string("auftragsname"),
+                Column.timestamp("erstellungsdatum")));
+        tables.put("dokumente", new ColumnTable(
+                Column.dictionary("dokument_id"),
+                Column.dictionary("auftrags_id"),
+                Column.string("dateiname"),
+                Column.timestamp("erstellungsdatum"),
+                Column.bool("validiert")));
+        tables.put("patienten", new ColumnTable(
+                Column.uuid("patient_id"),
+                Column.dictionary("dokument_id"),
+                Column.string("vorname"),
+                Column.string("nachname"),
+                Column.dictionary("geschlecht"),
+                Column.string("geburtsdatum"),
+                Column.string("id"),
+                Column.dictionary("id_root")));
+        tables.put("autoren", new ColumnTable(
+                Column.uuid("autor_id"),
+                Column.dictionary("dokument_id"),
+                Column.string("vorname"),
+                Column.string("nachname"),
+                Column.string("organisation")));
+        tables.put("inhalte", new ColumnTable(
+                Column.dictionary("inhalt_id"),
+                Column.dictionary("dokument_id"),
+                Column.dictionary("section_code"),
+                Column.dictionary("section_title"),
+                Column.dictionary("codeSystem"),
+                Column.dictionary("codeSystemName"),
+                Column.optionalDictionary("section_type")));
+        tables.put("werte", new ColumnTable(
+                Column.uuid("wert_id"),
+                Column.dictionary("dokument_id"),
+                Column.dictionary("inhalt_id"),
+                Column.dictionary("key_path"),
+                Column.string("value")));
     }
 
     public void addRow(String tableName, Map<String, Object> row) {
-        data.get(tableName).add(row);
+        tables.get(tableName).addRow(row);
+    }
+
+    ColumnTable table(String tableName) {
+        return tables.get(tableName);
+    }
+
+    Map<String, ColumnTable> tables() {
+        return tables;
+    }
+
+    /**
+     * Hängt alle Zeilen eines anderen DataFrames tabellenweise an.
+     */
+    public void addAll(DataFrames other) {
+        for (Map.Entry<String, ColumnTable> table : other.tables.entrySet()) {
+            tables.get(table.getKey()).addAll(table.getValue());
+        }
+    }
+
+    /**
+     * Kopie mit neuen IDs, wie sie eine erneute Extraktion derselben Datei erzeugt hätte: neue
+     * dokument_id, inhalt_id, patient_id, autor_id und wert_id (Verweise bleiben stimmig), die
+     * übergebene auftrags_id und der aktuelle Zeitpunkt als erstellungsdatum. Der dateiname kommt
+     * vom aktuellen Upload, nicht von dem, der den Inhalt zuerst hochgeladen hat.
+     */
+    DataFrames copyWithNewIds(String auftragId, String fileName) {
+        DataFrames copy = new DataFrames();
+        Map<String, String> linkedIds = new HashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+
+        for (Map.Entry<String, ColumnTable> entry : tables.entrySet()) {
+            ColumnTable source = entry.getValue();
+            ColumnTable target = copy.tables.get(entry.getKey());
+            Object[] values = new Object[source.columnCount()];
+            for (int row = 0; row < source.rowCount(); row++) {
+                for (int i = 0; i < values.length; i++) {
+                    Column column = source.column(i);
+                    String name = column.name();
+                    if (ROW_IDS.contains(name)) {
+                        values[i] = UUID.randomUUID();
+                    } else if (LINKED_IDS.contains(name)) {
+                        Object id = column.get(row);
+                        values[i] = id == null ? null
+                                : linkedIds.computeIfAbsent((String) id, old -> UUID.randomUUID().toString());
+                    } else if (name.equals("auftrags_id")) {
+                        values[i] = auftragId;
+                    } else if (name.equals("erstellungsdatum")) {
+                        values[i] = now;
+                    } else if (name.equals("dateiname")) {
+                        values[i] = fileName;
+                    } else {
+                        values[i] = column.get(row);
+                    }
+                }
+                target.appendRow(values);
+            }
+        }
+        return copy;
+    }
+
+    long estimatedBytes() {
+        long bytes = 0;
+        for (ColumnTable table : tables.values()) {
+            bytes += table.estimatedBytes();
+        }
+        return bytes;
     }
 
     public List<Map<String, Object>> getTable(String tableName) {
-        return data.get(tableName);
+        return tables.get(tableName).rows();
+    }
+
+    /**
+     * Alle Tabellen als Zeilenansicht, in der Reihenfolge auftraege, dokumente, patienten, autoren,
+     * inhalte, werte.
+     */
+    public Map<String, List<Map<String, Object>>> asMap() {
+        Map<String, List<Map<String, Object>>> data = new LinkedHashMap<>();
+        for (Map.Entry<String, ColumnTable> table : tables.entrySet()) {
+            data.put(table.getKey(), table.getValue().rows());
+        }
+        return data;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package lars.ba.own.extraction;
+
+import lars.ba.common.ContentCache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+/**
+ * Binärformat der DataFrames eines Dokuments für die Festplatten-Ablage des {@link ExtractionCache}.
+ * <p>
+ * Tabellen in fester Reihenfolge, Zeile für Zeile, jeder Wert mit einem Typ-Byte davor. Strings
+ * werden als UTF-8 mit vorangestellter Länge geschrieben (writeUTF ist auf 64 KB begrenzt).
+ */
+final class DataFramesCodec implements ContentCache.Codec<DataFrames> {
+
+    private static final int FORMAT = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte TIMESTAMP = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+
+    @Override
+    public long weigh(DataFrames value) {
+        return value.estimatedBytes();
+    }
+
+    @Override
+    public void write(DataFrames frames, DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT);
+        Map<String, ColumnTable> tables = frames.tables();
+        out.writeInt(tables.size());
+        for (Map.Entry<String, ColumnTable> entry : tables.entrySet()) {
+            ColumnTable table = entry.getValue();
+            writeString(out, entry.getKey());
+            out.writeInt(table.columnCount());
+            out.writeInt(table.rowCount());
+            for (int row = 0; row < table.rowCount(); row++) {
+                for (int i = 0; i < table.columnCount(); i++) {
+                    writeValue(out, table.column(i).get(row));
+                }
+            }
+        }
+    }
+
+    @Override
+    public DataFrames read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT) {
+            throw new IOException("Unbekanntes Format der Cache-Datei");
+        }
+        DataFrames frames = new DataFrames();
+        int tableCount = in.readInt();
+        for (int t = 0; t < tableCount; t++) {
+            ColumnTable table = frames.table(readString(in));
+            int columnCount = in.readInt();
+            if (table == null || columnCount != table.columnCount()) {
+                throw new IOException("Tabellenschema der Cache-Datei passt nicht");
+            }
+            int rowCount = in.readInt();
+            Object[] values = new Object[columnCount];
+            for (int row = 0; row < rowCount; row++) {
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = readValue(in);
+                }
+                table.appendRow(values);
+            }
+        }
+        return frames;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String text) {
+            out.writeByte(STRING);
+            writeString(out, text);
+        } else if (value instanceof LocalDateTime timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(timestamp.getNano());
+        } else if (value instanceof Boolean flag) {
+            out.writeByte(flag ? TRUE : FALSE);
+        } else {
+            throw new IOException("Nicht unterstützter Spaltenwert: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case NULL -> null;
+            case STRING -> readString(in);
+            case TIMESTAMP -> LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            case TRUE -> Boolean.TRUE;
+            case FALSE -> Boolean.FALSE;
+            default -> throw new IOException("Unbekannter Werttyp " + type);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
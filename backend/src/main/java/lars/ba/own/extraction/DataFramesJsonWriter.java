@@ -0,0 +1,116 @@
+package lars.ba.own.extraction;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Schreibt DataFrames mit dem Streaming-API von Jackson direkt aus den Spalten. Es entsteht weder
+ * ein JSON-String noch eine Map pro Zeile; jede Tabelle wird nach dem Schreiben geflusht.
+ * <p>
+ * Das Format entspricht der Serialisierung von {@code CDAProcessor.getData()} mit einem
+ * ObjectMapper: ein Objekt mit einem Array pro Tabelle. Werte, die kein String, Boolean oder
+ * {@code null} sind (Zeitstempel), werden an den Codec des Generators übergeben.
+ * <p>
+ * Gespeicherte Aufträge ({@link StoredAuftrag}) werden im selben Format direkt aus den abgebildeten
+ * Spalten geschrieben.
+ */
+class DataFramesJsonWriter {
+
+    private static final String[] TABLES = {"auftraege", "dokumente", "patienten", "autoren", "inhalte", "werte"};
+
+    private DataFramesJsonWriter() {
+    }
+
+    static void write(DataFrames dataFrames, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (String tableName : TABLES) {
+            generator.writeFieldName(tableName);
+            writeTable(dataFrames.table(tableName), generator);
+            generator.flush();
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    static void write(StoredAuftrag auftrag, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (String tableName : TABLES) {
+            MappedTable table = auftrag.table(tableName);
+            generator.writeFieldName(tableName);
+            generator.writeStartArray();
+            writeRows(table, 0, table.rowCount(), generator);
+            generator.writeEndArray();
+            generator.flush();
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private static void writeTable(ColumnTable table, JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        writeRows(table, 0, table.rowCount(), generator);
+        generator.writeEndArray();
+    }
+
+    static boolean isTable(String tableName) {
+        for (String table : TABLES) {
+            if (table.equals(tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Schreibt die Zeilen {@code from} (inklusive) bis {@code to} (exklusive) als einzelne Objekte,
+     * ohne umschließendes Array.
+     */
+    static void writeRows(ColumnTable table, int from, int to, JsonGenerator generator) throws IOException {
+        int columnCount = table.columnCount();
+        for (int row = from; row < to; row++) {
+            generator.writeStartObject();
+            for (int i = 0; i < columnCount; i++) {
+                Column column = table.column(i);
+                Object value = column.get(row);
+                if (value == null && column.isOptional()) {
+                    continue;
+                }
+                generator.writeFieldName(column.name());
+                writeValue(value, generator);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Wie {@link #writeRows(ColumnTable, int, int, JsonGenerator)} für eine gespeicherte Tabelle.
+     */
+    static void writeRows(MappedTable table, int from, int to, JsonGenerator generator) throws IOException {
+        int columnCount = table.columnCount();
+        for (int row = from; row < to; row++) {
+            generator.writeStartObject();
+            for (int i = 0; i < columnCount; i++) {
+                MappedColumn column = table.column(i);
+                if (column.isOptional() && column.get(row) == null) {
+                    continue;
+                }
+                generator.writeFieldName(column.name());
+                column.write(row, generator);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    static void writeValue(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String text) {
+            generator.writeString(text);
+        } else if (value instanceof Boolean bool) {
+            generator.writeBoolean(bool);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+}
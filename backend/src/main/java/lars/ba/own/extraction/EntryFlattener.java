@@ -0,0 +1,252 @@
+package lars.ba.own.extraction;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zerlegt einen entry in key_path/value-Paare, indem der Teilbaum einmal durchlaufen wird.
+ * <p>
+ * Die Pfade entsprechen exakt denen der früheren Kette processElement → elevateChildren →
+ * flattenDict: Attribute als {@code pfad@name} (ohne Präfix), eigener Text als {@code pfad/text()}
+ * (bzw. {@code ""} am entry selbst), Kindelemente als {@code pfad.name}, wiederholte Kindelemente als
+ * {@code pfad.name[i]}. Elemente ohne Attribute, Text und nicht-leere Kinder fallen weg. Zwischenbäume
+ * aus Maps werden dabei nicht mehr aufgebaut, der Pfad liegt in einem wiederverwendeten StringBuilder.
+ * <p>
+ * Ein einzelnes Kindelement namens {@code text} ersetzt wie früher den eigenen Text des Elements
+ * ({@link #textElementValue}). Wiederholte {@code text}-Kindelemente und Elemente namens
+ * {@code children}/{@code attributes} werden wie alle anderen Kindelemente behandelt; die alte
+ * Map-Darstellung lieferte dafür einen toString() der Zwischen-Maps bzw. vermischte die Namen mit
+ * ihren Strukturschlüsseln.
+ * <p>
+ * Nicht threadsicher, eine Instanz pro Dokument.
+ */
+final class EntryFlattener {
+
+    interface Sink {
+        void value(String keyPath, String value);
+    }
+
+    private static final String TEXT = "text";
+
+    private final StringBuilder path = new StringBuilder(128);
+    private final List<List<Element>> childrenByDepth = new ArrayList<>();
+    private final List<List<String>> namesByDepth = new ArrayList<>();
+    /** pro Tiefe und Kindname: {Anzahl, nächster Index} */
+    private final List<Map<String, int[]>> countsByDepth = new ArrayList<>();
+
+    private long flattenNanos;
+    private long valueCount;
+
+    /**
+     * classCode des ersten Kindelements, in der Reihenfolge, in der die alte HashMap der Kindelemente
+     * iteriert wurde. {@code null}, wenn es keins gibt.
+     */
+    String sectionType(Element entry) {
+        Map<String, Element> children = new HashMap<>();
+        for (Node child = entry.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && isNonEmpty((Element) child)) {
+                children.putIfAbsent(stripPrefix(((Element) child).getTagName()), (Element) child);
+            }
+        }
+        if (children.isEmpty()) {
+            return null;
+        }
+        return attribute(children.values().iterator().next(), "classCode");
+    }
+
+    void flatten(Element entry, Sink sink) {
+        long start = System.nanoTime();
+        Sink counting = (keyPath, value) -> {
+            valueCount++;
+            sink.value(keyPath, value);
+        };
+        path.setLength(0);
+        visit(entry, 0, counting);
+        flattenNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Summe der Zeit in {@link #flatten}, einschließlich der Aufrufe des Sink.
+     */
+    long flattenNanos() {
+        return flattenNanos;
+    }
+
+    /**
+     * Anzahl der bisher gelieferten key_path/value-Paare.
+     */
+    long valueCount() {
+        return valueCount;
+    }
+
+    private void visit(Element element, int depth, Sink sink) {
+        int pathLength = path.length();
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String name = stripPrefix(attributes.item(i).getNodeName());
+            if (isOverridden(attributes, i, name)) {
+                continue;
+            }
+            path.append('@').append(name);
+            sink.value(path.toString(), attributes.item(i).getNodeValue());
+            path.setLength(pathLength);
+        }
+
+        List<Element> children = level(childrenByDepth, depth);
+        List<String> names = level(namesByDepth, depth);
+        int textIndex = -1;
+        int textCount = 0;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && isNonEmpty((Element) child)) {
+                Element childElement = (Element) child;
+                String name = stripPrefix(childElement.getTagName());
+                if (TEXT.equals(name)) {
+                    textIndex = children.size();
+                    textCount++;
+                }
+                children.add(childElement);
+                names.add(name);
+            }
+        }
+
+        String textKey = pathLength == 0 ? "" : path + "/text()";
+        if (textCount == 1) {
+            // ein einzelnes text-Kindelement ersetzt den eigenen Text des Elements
+            Element text = children.remove(textIndex);
+            names.remove(textIndex);
+            String value = textElementValue(text);
+            if (value != null) {
+                sink.value(textKey, value);
+            }
+        } else {
+            String ownText = ownText(element);
+            if (ownText != null) {
+                sink.value(textKey, ownText);
+            }
+        }
+
+        // Geschwister gleichen Namens einmal zählen, der Index läuft beim Besuchen mit
+        Map<String, int[]> counts = countsByDepth(depth);
+        for (String name : names) {
+            counts.computeIfAbsent(name, key -> new int[2])[0]++;
+        }
+
+        for (int i = 0; i < children.size(); i++) {
+            String name = names.get(i);
+            int[] count = counts.get(name);
+            int index = count[1]++;
+
+            if (pathLength > 0) {
+                path.append('.');
+            }
+            path.append(name);
+            if (count[0] > 1) {
+                path.append('[').append(index).append(']');
+            }
+            visit(children.get(i), depth + 1, sink);
+            path.setLength(pathLength);
+        }
+        children.clear();
+        names.clear();
+        counts.clear();
+    }
+
+    /**
+     * Wiederverwendete Liste für eine Tiefe, damit pro Element keine neue Liste entsteht.
+     */
+    private static <T> List<T> level(List<List<T>> levels, int depth) {
+        while (levels.size() <= depth) {
+            levels.add(new ArrayList<>());
+        }
+        return levels.get(depth);
+    }
+
+    private Map<String, int[]> countsByDepth(int depth) {
+        while (countsByDepth.size() <= depth) {
+            countsByDepth.add(new HashMap<>());
+        }
+        return countsByDepth.get(depth);
+    }
+
+    /**
+     * Wert eines text-Kindelements wie bei cleanValue der alten Darstellung: nur ein reiner Text
+     * zählt, also keine Attribute und genau ein Kindknoten, der höchstens ein leeres Element ist.
+     * Strukturierter Inhalt (z.B. {@code <content>}) ergibt keinen Wert.
+     */
+    private static String textElementValue(Element text) {
+        if (text.getAttributes().getLength() > 0) {
+            return null;
+        }
+        Node child = text.getFirstChild();
+        if (child.getNodeType() == Node.ELEMENT_NODE && isNonEmpty((Element) child)) {
+            return null;
+        }
+        return ownText(text);
+    }
+
+    /**
+     * Ein Element zählt, wenn es Attribute, eigenen Text oder ein Kindelement hat, das zählt.
+     */
+    private static boolean isNonEmpty(Element element) {
+        if (element.getAttributes().getLength() > 0 || ownText(element) != null) {
+            return true;
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && isNonEmpty((Element) child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getrimmter Textinhalt, falls das Element genau einen Kindknoten hat und der Text nicht leer ist.
+     */
+    private static String ownText(Element element) {
+        Node child = element.getFirstChild();
+        if (child == null || child.getNextSibling() != null) {
+            return null;
+        }
+        short type = child.getNodeType();
+        if (type == Node.COMMENT_NODE || type == Node.PROCESSING_INSTRUCTION_NODE) {
+            return null;
+        }
+        String text = child.getTextContent().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Bei gleichen Namen ohne Präfix gewinnt wie in der alten Attribut-Map das letzte Attribut.
+     */
+    private static boolean isOverridden(NamedNodeMap attributes, int index, String name) {
+        for (int j = index + 1; j < attributes.getLength(); j++) {
+            if (name.equals(stripPrefix(attributes.item(j).getNodeName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String attribute(Element element, String name) {
+        String value = null;
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (name.equals(stripPrefix(attributes.item(i).getNodeName()))) {
+                value = attributes.item(i).getNodeValue();
+            }
+        }
+        return value;
+    }
+
+    private static String stripPrefix(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+}
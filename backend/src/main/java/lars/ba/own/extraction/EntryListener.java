@@ -0,0 +1,18 @@
+package lars.ba.own.extraction;
+
+/**
+ * Empfängt die Einträge eines Dokuments direkt während der Extraktion, statt dass sie als inhalte-
+ * und werte-Zeilen abgelegt werden. Die Aufrufe kommen für ein Dokument immer von einem Thread und
+ * in Dokumentreihenfolge: {@code startEntry}, beliebig viele {@code value}, {@code endEntry}.
+ */
+public interface EntryListener {
+
+    void startEntry(String inhaltId, String sectionCode);
+
+    /**
+     * Eine werte-Zeile des aktuellen Eintrags, in derselben Form wie in der werte-Tabelle.
+     */
+    void value(String keyPath, String value);
+
+    void endEntry();
+}
@@ -1,32 +1,57 @@
 package lars.ba.own.extraction;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import io.vertx.ext.web.RoutingContext;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.ParserFactories;
+import lars.ba.common.RequestTiming;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestForm;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @Path("/extract")
 @Consumes(MediaType.MULTIPART_FORM_DATA)
 @Produces(MediaType.APPLICATION_JSON)
 public class Extraction {
 
+    private static final Logger LOG = Logger.getLogger(Extraction.class);
+
+    @ConfigProperty(name = "cda-extraction.mode", defaultValue = "stream")
+    CDAProcessor.ExtractionMode extractionMode;
+
+    @Inject
+    ExtractionExecutor extractionExecutor;
+
+    @Inject
+    ParserFactories parserFactories;
+
+    @Inject
+    ExtractionCache extractionCache;
+
+    @Inject
+    ConversionMetrics metrics;
+
     @POST
     @Path("/xml")
     public Response uploadXmlFiles(
-            @RestForm("files") List<FileUpload> files) {
+            @RestForm("files") List<FileUpload> files, RoutingContext routingContext) {
+        metrics.record(Stage.RECEIVE, RequestTiming.elapsedNanos(routingContext));
         List<String> uploadedFiles = new ArrayList<>();
 
-        CDAProcessor processor = new CDAProcessor();
+        CDAProcessor processor = new CDAProcessor(extractionMode, parserFactories, extractionCache, metrics);
 
         try {
             // Validierung der Dateien
@@ -39,21 +64,22 @@ public class Extraction {
             }
 
             String auftragId = processor.createAuftrag("Mein CDA Import");
-            System.out.println("Auftrag erstellt mit ID: " + auftragId);
-
-            processor.processCDAFile(files);
-
-            Map<String, List<Map<String, Object>>> results = processor.getData();
+            LOG.infof("Auftrag erstellt mit ID: %s", auftragId);
 
-            // ObjectMapper mit JavaTimeModule registrieren
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.registerModule(new JavaTimeModule());
+            processor.processCDAFile(files, extractionExecutor.executor());
+            metrics.documents("extraction", files.size());
 
-            // JSON konvertieren
-            String json = objectMapper.writeValueAsString(results);
-
-//            String formattetJson = JsonFormatter.formatJson(json);
+            DataFrames results = processor.getDataFrames();
 
+            // JSON tabellenweise direkt in den Response-Stream schreiben, ohne Zwischen-String
+            StreamingOutput json = output -> {
+                long start = System.nanoTime();
+                try (JsonGenerator generator = parserFactories.objectMapper().createGenerator(output)) {
+                    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    DataFramesJsonWriter.write(results, generator);
+                }
+                metrics.record(Stage.SERIALIZE, System.nanoTime() - start);
+            };
 
             return Response.ok(json).build();
         } catch (Exception e) {
@@ -0,0 +1,54 @@
+package lars.ba.own.extraction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.Startup;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.ContentCache;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.file.Path;
+
+/**
+ * Cache der extrahierten Tabellen pro Datei für /extract/xml.
+ * <p>
+ * Abgelegt wird das DataFrames eines Dokuments, wie es {@link CDAProcessor} erzeugt hat. Bei einem
+ * Treffer bekommt der Auftrag eine Kopie mit neuen IDs ({@link DataFrames#copyWithNewIds(String, String)}), die
+ * Datei wird nicht noch einmal geparst.
+ * <p>
+ * Der Cache gilt nur für den konfigurierten {@code cda-extraction.mode}. Ein {@link CDAProcessor} mit
+ * anderem Modus (etwa /extract/xml/stream, das immer STREAM nutzt) liest und schreibt ihn nicht.
+ */
+@Startup
+@ApplicationScoped
+public class ExtractionCache {
+
+    private final ContentCache<DataFrames> cache;
+    private final CDAProcessor.ExtractionMode mode;
+
+    public ExtractionCache(@ConfigProperty(name = "cda-cache.enabled", defaultValue = "true") boolean enabled,
+                           @ConfigProperty(name = "cda-cache.version", defaultValue = "1") String version,
+                           @ConfigProperty(name = "quarkus.application.version", defaultValue = "dev") String applicationVersion,
+                           @ConfigProperty(name = "cda-extraction.mode", defaultValue = "stream") CDAProcessor.ExtractionMode mode,
+                           @ConfigProperty(name = "cda-cache.extraction.max-memory-mb", defaultValue = "64") long maxMemoryMb,
+                           @ConfigProperty(name = "cda-cache.disk.enabled", defaultValue = "false") boolean diskEnabled,
+                           @ConfigProperty(name = "cda-cache.disk.directory", defaultValue = "target/cda-cache") String directory,
+                           @ConfigProperty(name = "cda-cache.disk.max-size-mb", defaultValue = "1024") long maxDiskMb,
+                           MeterRegistry meterRegistry) {
+        this.mode = mode;
+        this.cache = new ContentCache<>("extraction", enabled,
+                "extraction/" + applicationVersion + "/" + version + "/" + mode,
+                maxMemoryMb * 1024 * 1024, diskEnabled ? Path.of(directory) : null, maxDiskMb * 1024 * 1024,
+                new DataFramesCodec(), meterRegistry);
+    }
+
+    ContentCache<DataFrames> cache() {
+        return cache;
+    }
+
+    /**
+     * Modus, in dem die Einträge extrahiert wurden.
+     */
+    CDAProcessor.ExtractionMode mode() {
+        return mode;
+    }
+}
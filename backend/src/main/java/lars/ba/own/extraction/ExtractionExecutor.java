@@ -0,0 +1,32 @@
+package lars.ba.own.extraction;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.DaemonThreads;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gemeinsamer, begrenzter Thread-Pool für die parallele Verarbeitung hochgeladener CDA-Dateien.
+ */
+@ApplicationScoped
+public class ExtractionExecutor {
+
+    private final ExecutorService executor;
+
+    public ExtractionExecutor(@ConfigProperty(name = "cda-extraction.parallelism", defaultValue = "0") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(threads, DaemonThreads.daemonThreads("cda-extraction"));
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
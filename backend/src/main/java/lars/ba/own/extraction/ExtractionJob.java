@@ -0,0 +1,66 @@
+package lars.ba.own.extraction;
+
+import java.time.Instant;
+
+/**
+ * Ein asynchron verarbeiteter Auftrag von /extract/xml/async. Der Zustand wird vom Job-Thread
+ * gesetzt und von den Abfrage-Endpunkten gelesen.
+ */
+final class ExtractionJob {
+
+    enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    final String auftragId;
+    final int fileCount;
+    final Instant created = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile StoredAuftrag result;
+    private volatile String error;
+    private volatile Instant finished;
+
+    ExtractionJob(String auftragId, int fileCount) {
+        this.auftragId = auftragId;
+        this.fileCount = fileCount;
+    }
+
+    Status status() {
+        return status;
+    }
+
+    /**
+     * Die gespeicherten Tabellen des Auftrags, erst bei {@link Status#DONE} gesetzt.
+     */
+    StoredAuftrag result() {
+        return result;
+    }
+
+    String error() {
+        return error;
+    }
+
+    Instant finished() {
+        return finished;
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void done(StoredAuftrag result) {
+        this.result = result;
+        this.finished = Instant.now();
+        this.status = Status.DONE;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        this.finished = Instant.now();
+        this.status = Status.FAILED;
+    }
+}
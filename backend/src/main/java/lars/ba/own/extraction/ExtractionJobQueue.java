@@ -0,0 +1,234 @@
+package lars.ba.own.extraction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.DaemonThreads;
+import lars.ba.common.ParserFactories;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Begrenzte Warteschlange für asynchrone Aufträge (/extract/xml/async).
+ * <p>
+ * Der Request legt nur den Auftrag an, kopiert die Uploads in ein eigenes Verzeichnis (RESTEasy löscht
+ * seine Dateien nach dem Request) und stellt den Auftrag ein. Eine feste Anzahl Job-Threads arbeitet
+ * die Warteschlange ab, die Dateien eines Auftrags laufen dabei wie bei /extract/xml parallel auf dem
+ * {@link ExtractionExecutor}. Ist die Warteschlange voll, wird der Auftrag abgelehnt
+ * ({@link RejectedExecutionException}, der Endpunkt antwortet mit 429), und zwar bevor eine Datei
+ * kopiert wird: jeder Auftrag belegt vorab einen von concurrency + queue-size Plätzen.
+ * <p>
+ * Das Ergebnis eines fertigen Auftrags wird im {@link AuftragStore} gespeichert, danach hält der Job
+ * nur noch die abgebildete Datei und die Tabellen können aus dem Heap verschwinden. Der Job-Status
+ * bleibt {@code cda-extraction.jobs.retention-minutes} abrufbar und wird beim nächsten Einstellen
+ * entfernt; die Tabellen gibt es danach weiter über /extract/auftraege.
+ */
+@ApplicationScoped
+public class ExtractionJobQueue {
+
+    private static final Logger LOG = Logger.getLogger(ExtractionJobQueue.class);
+
+    private final ThreadPoolExecutor executor;
+    /** Plätze für laufende und wartende Aufträge */
+    private final Semaphore slots;
+    private final Duration retention;
+    private final Map<String, ExtractionJob> jobs = new ConcurrentHashMap<>();
+
+    private final CDAProcessor.ExtractionMode mode;
+    private final ParserFactories parserFactories;
+    private final ExtractionExecutor extractionExecutor;
+    private final ExtractionCache extractionCache;
+    private final AuftragStore auftragStore;
+    private final ConversionMetrics metrics;
+    private final Counter rejected;
+
+    public ExtractionJobQueue(@ConfigProperty(name = "cda-extraction.jobs.concurrency", defaultValue = "1") int concurrency,
+                              @ConfigProperty(name = "cda-extraction.jobs.queue-size", defaultValue = "16") int queueSize,
+                              @ConfigProperty(name = "cda-extraction.jobs.retention-minutes", defaultValue = "60") long retentionMinutes,
+                              @ConfigProperty(name = "cda-extraction.mode", defaultValue = "stream") CDAProcessor.ExtractionMode mode,
+                              ParserFactories parserFactories,
+                              ExtractionExecutor extractionExecutor,
+                              ExtractionCache extractionCache,
+                              AuftragStore auftragStore,
+                              ConversionMetrics metrics,
+                              MeterRegistry meterRegistry) {
+        int threads = Math.max(1, concurrency);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), DaemonThreads.daemonThreads("cda-job"), new ThreadPoolExecutor.AbortPolicy());
+        this.slots = new Semaphore(threads + Math.max(1, queueSize));
+        this.retention = Duration.ofMinutes(retentionMinutes);
+        this.mode = mode;
+        this.parserFactories = parserFactories;
+        this.extractionExecutor = extractionExecutor;
+        this.extractionCache = extractionCache;
+        this.auftragStore = auftragStore;
+        this.metrics = metrics;
+
+        this.rejected = Counter.builder("cda.jobs.rejected")
+                .description("Wegen voller Warteschlange abgelehnte Aufträge")
+                .register(meterRegistry);
+        meterRegistry.gauge("cda.jobs.queued", executor, pool -> pool.getQueue().size());
+        meterRegistry.gauge("cda.jobs.running", executor, ThreadPoolExecutor::getActiveCount);
+    }
+
+    /**
+     * Legt einen Auftrag an und stellt ihn ein.
+     *
+     * @throws RejectedExecutionException wenn die Warteschlange voll ist
+     */
+    ExtractionJob submit(String auftragsname, List<FileUpload> files) throws IOException {
+        removeExpired();
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Warteschlange voll");
+        }
+
+        CDAProcessor processor = new CDAProcessor(mode, parserFactories, extractionCache, metrics);
+        String auftragId = processor.createAuftrag(auftragsname);
+        ExtractionJob job = new ExtractionJob(auftragId, files.size());
+
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("cda-auftrag-");
+            List<FileUpload> copies = copyUploads(files, directory);
+            jobs.put(auftragId, job);
+            Path jobDirectory = directory;
+            executor.execute(() -> run(job, processor, copies, jobDirectory));
+        } catch (RejectedExecutionException | IOException e) {
+            slots.release();
+            jobs.remove(auftragId);
+            if (directory != null) {
+                deleteDirectory(directory);
+            }
+            if (e instanceof RejectedExecutionException) {
+                rejected.increment();
+            }
+            throw e;
+        }
+        return job;
+    }
+
+    ExtractionJob job(String auftragId) {
+        return jobs.get(auftragId);
+    }
+
+    private void run(ExtractionJob job, CDAProcessor processor, List<FileUpload> files, Path directory) {
+        job.running();
+        try {
+            processor.processCDAFile(files, extractionExecutor.executor());
+            metrics.documents("extraction-async", files.size());
+            job.done(auftragStore.save(job.auftragId, processor.getDataFrames()));
+        } catch (Exception e) {
+            LOG.warnf(e, "Auftrag %s fehlgeschlagen", job.auftragId);
+            job.failed(String.valueOf(e.getMessage()));
+        } finally {
+            deleteDirectory(directory);
+            slots.release();
+        }
+    }
+
+    private static List<FileUpload> copyUploads(List<FileUpload> files, Path directory) throws IOException {
+        List<FileUpload> copies = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            FileUpload file = files.get(i);
+            // laufende Nummer statt Dateiname, der Name kommt vom Client
+            Path copy = directory.resolve(i + ".xml");
+            Files.copy(file.uploadedFile(), copy);
+            copies.add(new StoredUpload(file, copy));
+        }
+        return copies;
+    }
+
+    private void removeExpired() {
+        Instant limit = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.finished() != null && job.finished().isBefore(limit));
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "Temporäres Verzeichnis %s konnte nicht gelöscht werden", directory);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Kopie eines Uploads, die über das Ende des Requests hinaus bestehen bleibt.
+     */
+    private static final class StoredUpload implements FileUpload {
+        private final String name;
+        private final String fileName;
+        private final String contentType;
+        private final String charSet;
+        private final Path path;
+
+        StoredUpload(FileUpload original, Path path) {
+            this.name = original.name();
+            this.fileName = original.fileName();
+            this.contentType = original.contentType();
+            this.charSet = original.charSet();
+            this.path = path;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public Path filePath() {
+            return path;
+        }
+
+        @Override
+        public String fileName() {
+            return fileName;
+        }
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public String charSet() {
+            return charSet;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package lars.ba.own.extraction;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.ParserFactories;
+import lars.ba.common.RequestTiming;
+import org.jboss.resteasy.reactive.RestForm;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchrone Variante von /extract/xml: der Upload liefert sofort die auftrags_id, die Tabellen werden
+ * danach über den Status und seitenweise pro Tabelle abgeholt.
+ * <ul>
+ *     <li>{@code POST /extract/xml/async} – 202 mit auftrags_id, 429 bei voller Warteschlange</li>
+ *     <li>{@code GET /extract/jobs/{auftragsId}} – Status und Zeilenanzahl pro Tabelle</li>
+ *     <li>{@code GET /extract/jobs/{auftragsId}/tables/{tabelle}?offset=&limit=} – eine Seite Zeilen</li>
+ * </ul>
+ * Fertige Aufträge liegen im {@link AuftragStore} und bleiben dort auch nach dem Job-Status abrufbar:
+ * <ul>
+ *     <li>{@code GET /extract/auftraege/{auftragsId}} – alle Tabellen im Format von /extract/xml</li>
+ *     <li>{@code GET /extract/auftraege/{auftragsId}/tables/{tabelle}?offset=&limit=} – eine Seite Zeilen</li>
+ * </ul>
+ */
+@Path("/extract")
+@Produces(MediaType.APPLICATION_JSON)
+public class ExtractionJobResource {
+
+    private static final int MAX_LIMIT = 10_000;
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    @Inject
+    ExtractionJobQueue jobQueue;
+
+    @Inject
+    AuftragStore auftragStore;
+
+    @Inject
+    ParserFactories parserFactories;
+
+    @Inject
+    ConversionMetrics metrics;
+
+    @POST
+    @Path("/xml/async")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    public Response submit(@RestForm("files") List<FileUpload> files, RoutingContext routingContext) {
+        metrics.record(Stage.RECEIVE, RequestTiming.elapsedNanos(routingContext));
+        for (FileUpload file : files) {
+            if (!file.fileName().toLowerCase().endsWith(".xml")) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Es werden nur XML-Dateien akzeptiert")
+                        .build();
+            }
+        }
+
+        ExtractionJob job;
+        try {
+            job = jobQueue.submit("Mein CDA Import", files);
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .header("Retry-After", RETRY_AFTER_SECONDS)
+                    .entity(error("Warteschlange voll, bitte später erneut versuchen"))
+                    .build();
+        } catch (Exception e) {
+            return Response.serverError()
+                    .entity("Fehler beim Upload: " + e.getMessage())
+                    .build();
+        }
+
+        return Response.accepted(status(job))
+                .location(URI.create("/extract/jobs/" + job.auftragId))
+                .build();
+    }
+
+    @GET
+    @Path("/jobs/{auftragsId}")
+    public Response status(@PathParam("auftragsId") String auftragsId) {
+        ExtractionJob job = jobQueue.job(auftragsId);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(status(job)).build();
+    }
+
+    @GET
+    @Path("/jobs/{auftragsId}/tables/{tabelle}")
+    public Response page(@PathParam("auftragsId") String auftragsId,
+                         @PathParam("tabelle") String tabelle,
+                         @QueryParam("offset") @DefaultValue("0") int offset,
+                         @QueryParam("limit") @DefaultValue("1000") int limit) {
+        ExtractionJob job = jobQueue.job(auftragsId);
+        if (job == null || !DataFramesJsonWriter.isTable(tabelle)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (job.status() != ExtractionJob.Status.DONE) {
+            Response invalid = checkPage(offset, limit);
+            return invalid != null ? invalid : Response.status(Response.Status.CONFLICT).entity(status(job)).build();
+        }
+        return page(job.result(), tabelle, offset, limit);
+    }
+
+    @GET
+    @Path("/auftraege/{auftragsId}")
+    public Response stored(@PathParam("auftragsId") String auftragsId) {
+        StoredAuftrag auftrag;
+        try {
+            auftrag = auftragStore.open(auftragsId);
+        } catch (IOException e) {
+            return Response.serverError().entity(error("Auftrag nicht lesbar: " + e.getMessage())).build();
+        }
+        if (auftrag == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        StreamingOutput json = output -> {
+            long start = System.nanoTime();
+            try (JsonGenerator generator = parserFactories.objectMapper().createGenerator(output)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                DataFramesJsonWriter.write(auftrag, generator);
+            }
+            metrics.record(Stage.SERIALIZE, System.nanoTime() - start);
+        };
+        return Response.ok(json).build();
+    }
+
+    @GET
+    @Path("/auftraege/{auftragsId}/tables/{tabelle}")
+    public Response storedPage(@PathParam("auftragsId") String auftragsId,
+                               @PathParam("tabelle") String tabelle,
+                               @QueryParam("offset") @DefaultValue("0") int offset,
+                               @QueryParam("limit") @DefaultValue("1000") int limit) {
+        StoredAuftrag auftrag;
+        try {
+            auftrag = auftragStore.open(auftragsId);
+        } catch (IOException e) {
+            return Response.serverError().entity(error("Auftrag nicht lesbar: " + e.getMessage())).build();
+        }
+        if (auftrag == null || !DataFramesJsonWriter.isTable(tabelle)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return page(auftrag, tabelle, offset, limit);
+    }
+
+    private Response page(StoredAuftrag auftrag, String tabelle, int offset, int limit) {
+        Response invalid = checkPage(offset, limit);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        MappedTable table = auftrag.table(tabelle);
+        int total = table.rowCount();
+        int from = Math.min(offset, total);
+        int to = (int) Math.min((long) from + limit, total);
+
+        StreamingOutput json = output -> {
+            try (JsonGenerator generator = parserFactories.objectMapper().createGenerator(output)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartObject();
+                generator.writeStringField("auftrags_id", auftrag.auftragId());
+                generator.writeStringField("tabelle", tabelle);
+                generator.writeNumberField("offset", from);
+                generator.writeNumberField("limit", limit);
+                generator.writeNumberField("total", total);
+                generator.writeArrayFieldStart("rows");
+                DataFramesJsonWriter.writeRows(table, from, to, generator);
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+        return Response.ok(json).build();
+    }
+
+    private static Response checkPage(int offset, int limit) {
+        if (offset < 0 || limit < 1 || limit > MAX_LIMIT) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error("offset >= 0 und 1 <= limit <= " + MAX_LIMIT))
+                    .build();
+        }
+        return null;
+    }
+
+    private static JsonObject status(ExtractionJob job) {
+        JsonObjectBuilder status = Json.createObjectBuilder()
+                .add("auftrags_id", job.auftragId)
+                .add("status", job.status().name())
+                .add("dateien", job.fileCount)
+                .add("erstellt", job.created.toString());
+        if (job.finished() != null) {
+            status.add("beendet", job.finished().toString());
+        }
+        if (job.error() != null) {
+            status.add("fehler", job.error());
+        }
+        StoredAuftrag result = job.result();
+        if (result != null) {
+            JsonObjectBuilder tables = Json.createObjectBuilder();
+            for (Map.Entry<String, MappedTable> table : result.tables().entrySet()) {
+                tables.add(table.getKey(), table.getValue().rowCount());
+            }
+            status.add("tabellen", tables);
+        }
+        return status.build();
+    }
+
+    private static JsonObject error(String message) {
+        return Json.createObjectBuilder().add("error", message).build();
+    }
+}
@@ -0,0 +1,231 @@
+package lars.ba.own.extraction;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Eine Spalte einer {@link MappedTable}, gelesen aus den per mmap abgebildeten Puffern einer
+ * {@link AuftragFile Auftragsdatei}. Die Puffer werden nur mit absoluten Zugriffen gelesen, die
+ * Spalten sind daher threadsicher.
+ */
+abstract class MappedColumn {
+
+    /** Größere Werte bekommen beim JSON-Schreiben einen eigenen Puffer statt des Thread-Puffers */
+    private static final int MAX_SCRATCH = 64 * 1024;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private final String name;
+    private final boolean optional;
+
+    MappedColumn(String name, boolean optional) {
+        this.name = name;
+        this.optional = optional;
+    }
+
+    static MappedColumn of(String name, byte kind, boolean optional, ByteBuffer[] buffers) throws IOException {
+        int expected = switch (kind) {
+            case AuftragFile.STRING, AuftragFile.DICTIONARY, AuftragFile.TIMESTAMP -> 3;
+            case AuftragFile.UUID -> 2;
+            case AuftragFile.BOOLEAN -> 1;
+            default -> throw new IOException("Unbekannter Spaltentyp " + kind + " (" + name + ")");
+        };
+        if (buffers.length != expected) {
+            throw new IOException("Spalte " + name + " hat " + buffers.length + " statt " + expected + " Puffer");
+        }
+        return switch (kind) {
+            case AuftragFile.STRING -> new StringColumn(name, optional, buffers);
+            case AuftragFile.DICTIONARY -> new DictionaryColumn(name, optional, buffers);
+            case AuftragFile.UUID -> new UuidColumn(name, optional, buffers);
+            case AuftragFile.TIMESTAMP -> new TimestampColumn(name, optional, buffers);
+            default -> new BooleanColumn(name, optional, buffers);
+        };
+    }
+
+    String name() {
+        return name;
+    }
+
+    boolean isOptional() {
+        return optional;
+    }
+
+    /**
+     * Der Wert als Objekt, wie {@link Column#get(int)}.
+     */
+    abstract Object get(int row);
+
+    /**
+     * Schreibt den Wert als JSON. Bei String-Spalten (z.B. werte.value) gehen die UTF-8-Bytes direkt
+     * aus dem Puffer an den Generator, ohne dass ein String entsteht.
+     */
+    void write(int row, JsonGenerator generator) throws IOException {
+        DataFramesJsonWriter.writeValue(get(row), generator);
+    }
+
+    static boolean isNull(ByteBuffer nulls, int row) {
+        return (nulls.get(row >> 3) & (1 << (row & 7))) != 0;
+    }
+
+    static String decode(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeUtf8(ByteBuffer data, int offset, int length, JsonGenerator generator) throws IOException {
+        byte[] bytes = length > MAX_SCRATCH ? new byte[length] : SCRATCH.get();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+            SCRATCH.set(bytes);
+        }
+        data.get(offset, bytes, 0, length);
+        generator.writeUTF8String(bytes, 0, length);
+    }
+
+    static final class StringColumn extends MappedColumn {
+        private final ByteBuffer data;
+        private final ByteBuffer offsets;
+        private final ByteBuffer nulls;
+
+        StringColumn(String name, boolean optional, ByteBuffer[] buffers) {
+            super(name, optional);
+            this.data = buffers[0];
+            this.offsets = buffers[1];
+            this.nulls = buffers[2];
+        }
+
+        private int start(int row) {
+            return (int) offsets.getLong(8 * row);
+        }
+
+        private int length(int row) {
+            return (int) (offsets.getLong(8 * (row + 1)) - offsets.getLong(8 * row));
+        }
+
+        @Override
+        String get(int row) {
+            return isNull(nulls, row) ? null : decode(data, start(row), length(row));
+        }
+
+        @Override
+        void write(int row, JsonGenerator generator) throws IOException {
+            if (isNull(nulls, row)) {
+                generator.writeNull();
+            } else {
+                writeUtf8(data, start(row), length(row), generator);
+            }
+        }
+    }
+
+    /**
+     * Wörterbuch-Spalte. Gelesene Wörterbuch-Einträge werden als String behalten, weil sich dieselben
+     * Werte (key_path, inhalt_id, ...) in vielen Zeilen wiederholen.
+     */
+    static final class DictionaryColumn extends MappedColumn {
+        private static final int NULL_CODE = -1;
+
+        private final ByteBuffer data;
+        private final ByteBuffer offsets;
+        private final ByteBuffer codes;
+        /** dekodierte Einträge; ein gleichzeitiges doppeltes Dekodieren ist harmlos */
+        private final String[] decoded;
+
+        DictionaryColumn(String name, boolean optional, ByteBuffer[] buffers) {
+            super(name, optional);
+            this.data = buffers[0];
+            this.offsets = buffers[1];
+            this.codes = buffers[2];
+            this.decoded = new String[offsets.capacity() / 4 - 1];
+        }
+
+        int code(int row) {
+            return codes.getInt(4 * row);
+        }
+
+        int dictionarySize() {
+            return decoded.length;
+        }
+
+        String lookup(int code) {
+            String value = decoded[code];
+            if (value == null) {
+                int start = offsets.getInt(4 * code);
+                value = decode(data, start, offsets.getInt(4 * (code + 1)) - start);
+                decoded[code] = value;
+            }
+            return value;
+        }
+
+        @Override
+        String get(int row) {
+            int code = code(row);
+            return code == NULL_CODE ? null : lookup(code);
+        }
+
+        @Override
+        void write(int row, JsonGenerator generator) throws IOException {
+            int code = code(row);
+            if (code == NULL_CODE) {
+                generator.writeNull();
+            } else {
+                generator.writeString(lookup(code));
+            }
+        }
+    }
+
+    static final class UuidColumn extends MappedColumn {
+        private final ByteBuffer bits;
+        private final ByteBuffer nulls;
+
+        UuidColumn(String name, boolean optional, ByteBuffer[] buffers) {
+            super(name, optional);
+            this.bits = buffers[0];
+            this.nulls = buffers[1];
+        }
+
+        @Override
+        String get(int row) {
+            return isNull(nulls, row) ? null : new UUID(bits.getLong(16 * row), bits.getLong(16 * row + 8)).toString();
+        }
+    }
+
+    static final class TimestampColumn extends MappedColumn {
+        private final ByteBuffer seconds;
+        private final ByteBuffer nanos;
+        private final ByteBuffer nulls;
+
+        TimestampColumn(String name, boolean optional, ByteBuffer[] buffers) {
+            super(name, optional);
+            this.seconds = buffers[0];
+            this.nanos = buffers[1];
+            this.nulls = buffers[2];
+        }
+
+        @Override
+        LocalDateTime get(int row) {
+            return isNull(nulls, row) ? null
+                    : LocalDateTime.ofEpochSecond(seconds.getLong(8 * row), nanos.getInt(4 * row), ZoneOffset.UTC);
+        }
+    }
+
+    static final class BooleanColumn extends MappedColumn {
+        private final ByteBuffer values;
+
+        BooleanColumn(String name, boolean optional, ByteBuffer[] buffers) {
+            super(name, optional);
+            this.values = buffers[0];
+        }
+
+        @Override
+        Boolean get(int row) {
+            byte value = values.get(row);
+            return value == 2 ? null : value == 1;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package lars.ba.own.extraction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Eine Tabelle einer {@link AuftragFile Auftragsdatei}, Gegenstück zu {@link ColumnTable} zum Lesen.
+ */
+final class MappedTable {
+
+    private final String name;
+    private final int rowCount;
+    private final MappedColumn[] columns;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+
+    MappedTable(String name, int rowCount, MappedColumn[] columns) {
+        this.name = name;
+        this.rowCount = rowCount;
+        this.columns = columns;
+        for (int i = 0; i < columns.length; i++) {
+            columnIndex.put(columns[i].name(), i);
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    int columnCount() {
+        return columns.length;
+    }
+
+    MappedColumn column(int index) {
+        return columns[index];
+    }
+
+    MappedColumn column(String name) {
+        Integer index = columnIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Unbekannte Spalte: " + name);
+        }
+        return columns[index];
+    }
+}
@@ -0,0 +1,223 @@
+package lars.ba.own.extraction;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Vorkompilierter Pfad der Form {@code ./cda:patient/cda:name} oder {@code .//cda:author}.
+ * <p>
+ * Der Pfad wird einmal in Schritte (Namespace-URI, lokaler Name, Kind oder Nachfahre) zerlegt; die
+ * Präfixe werden dabei über {@link CDAConfig#NS} aufgelöst. Beim Auswerten wird nur noch über die
+ * Kindknoten gelaufen, Nachfahren werden nur bei {@code //} durchsucht. Unterstützt wird die
+ * Teilmenge von XPath, die in {@link CDAConfig} und {@link CDAClassManager} vorkommt: {@code .},
+ * {@code /}, {@code //} und (optional mit Präfix) Elementnamen.
+ */
+final class PathPlan {
+
+    private final String path;
+    private final Step[] steps;
+    private final boolean multipleDescendantSteps;
+
+    private PathPlan(String path, Step[] steps) {
+        this.path = path;
+        this.steps = steps;
+        int descendantSteps = 0;
+        for (Step step : steps) {
+            if (step.descendant) {
+                descendantSteps++;
+            }
+        }
+        this.multipleDescendantSteps = descendantSteps > 1;
+    }
+
+    static PathPlan compile(String path) {
+        List<Step> steps = new ArrayList<>();
+        String[] parts = path.split("/", -1);
+        boolean descendant = false;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.isEmpty()) {
+                if (i == 0 || descendant) {
+                    throw new IllegalArgumentException("Nicht unterstützter Pfad: " + path);
+                }
+                // "//": der nächste Schritt sucht in allen Nachfahren
+                descendant = true;
+                continue;
+            }
+            if (part.equals(".")) {
+                if (descendant) {
+                    throw new IllegalArgumentException("Nicht unterstützter Pfad: " + path);
+                }
+                continue;
+            }
+
+            int colon = part.indexOf(':');
+            String namespace = null;
+            String localName = part;
+            if (colon >= 0) {
+                namespace = CDAConfig.NS.get(part.substring(0, colon));
+                if (namespace == null) {
+                    throw new IllegalArgumentException("Unbekanntes Namespace-Präfix in " + path);
+                }
+                localName = part.substring(colon + 1);
+            }
+            steps.add(new Step(namespace, localName, descendant));
+            descendant = false;
+        }
+        if (descendant) {
+            throw new IllegalArgumentException("Nicht unterstützter Pfad: " + path);
+        }
+        return new PathPlan(path, steps.toArray(new Step[0]));
+    }
+
+    /**
+     * Hängt weitere Schritte an, z.B. {@code "cda:given"} an den Namenspfad.
+     */
+    PathPlan then(String relativePath) {
+        return compile(path + "/" + relativePath);
+    }
+
+    /**
+     * Erstes passendes Element in Dokumentreihenfolge oder {@code null}.
+     */
+    Element first(Node context) {
+        return context == null ? null : first(context, 0);
+    }
+
+    private Element first(Node node, int stepIndex) {
+        if (stepIndex == steps.length) {
+            return (Element) node;
+        }
+        Step step = steps[stepIndex];
+        if (!step.descendant) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (step.matches(child)) {
+                    Element found = first(child, stepIndex + 1);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            return null;
+        }
+
+        Node current = node.getFirstChild();
+        while (current != null) {
+            if (step.matches(current)) {
+                Element found = first(current, stepIndex + 1);
+                if (found != null) {
+                    return found;
+                }
+            }
+            current = nextInSubtree(current, node);
+        }
+        return null;
+    }
+
+    /**
+     * Alle passenden Elemente in Dokumentreihenfolge.
+     */
+    List<Element> all(Node context) {
+        if (context == null) {
+            return Collections.emptyList();
+        }
+        List<Element> result = new ArrayList<>();
+        collect(context, 0, result);
+        if (multipleDescendantSteps && result.size() > 1) {
+            // verschachtelte Treffer (z.B. section in section) können mehrfach gefunden werden
+            Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            result.removeIf(element -> !seen.add(element));
+        }
+        return result;
+    }
+
+    private void collect(Node node, int stepIndex, List<Element> result) {
+        if (stepIndex == steps.length) {
+            result.add((Element) node);
+            return;
+        }
+        Step step = steps[stepIndex];
+        if (!step.descendant) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (step.matches(child)) {
+                    collect(child, stepIndex + 1, result);
+                }
+            }
+            return;
+        }
+
+        Node current = node.getFirstChild();
+        while (current != null) {
+            if (step.matches(current)) {
+                collect(current, stepIndex + 1, result);
+            }
+            current = nextInSubtree(current, node);
+        }
+    }
+
+    /**
+     * Textinhalt bzw. Attributwert des ersten Treffers, getrimmt. Leerer String, wenn es keinen
+     * Treffer gibt.
+     */
+    String extract(Element context, String attr) {
+        Element element = first(context);
+        if (element == null) {
+            return "";
+        }
+        return attr != null ? element.getAttribute(attr).trim() : element.getTextContent().trim();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Nächster Knoten in Dokumentreihenfolge innerhalb des Teilbaums von {@code root}.
+     */
+    private static Node nextInSubtree(Node current, Node root) {
+        Node firstChild = current.getFirstChild();
+        if (firstChild != null) {
+            return firstChild;
+        }
+        Node node = current;
+        while (node != root) {
+            Node sibling = node.getNextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+            node = node.getParentNode();
+        }
+        return null;
+    }
+
+    private static final class Step {
+        private final String namespace;
+        private final String localName;
+        private final boolean descendant;
+
+        Step(String namespace, String localName, boolean descendant) {
+            this.namespace = namespace;
+            this.localName = localName;
+            this.descendant = descendant;
+        }
+
+        boolean matches(Node node) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                return false;
+            }
+            String nodeName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+            if (!localName.equals(nodeName)) {
+                return false;
+            }
+            String nodeNamespace = node.getNamespaceURI();
+            return namespace == null ? nodeNamespace == null : namespace.equals(nodeNamespace);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package lars.ba.own.extraction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Die Tabellen eines abgeschlossenen Auftrags aus dem {@link AuftragStore}, per mmap aus der
+ * {@link AuftragFile Auftragsdatei} gelesen. Belegt selbst kaum Heap; die Seiten der Datei lädt das
+ * Betriebssystem bei Bedarf und kann sie jederzeit wieder verwerfen.
+ * <p>
+ * Unveränderlich und threadsicher, mehrere Requests können denselben Auftrag gleichzeitig lesen.
+ */
+public final class StoredAuftrag {
+
+    private final String auftragId;
+    private final Map<String, MappedTable> tables = new LinkedHashMap<>();
+
+    StoredAuftrag(String auftragId, List<MappedTable> tables) {
+        this.auftragId = auftragId;
+        for (MappedTable table : tables) {
+            this.tables.put(table.name(), table);
+        }
+    }
+
+    public String auftragId() {
+        return auftragId;
+    }
+
+    MappedTable table(String tableName) {
+        return tables.get(tableName);
+    }
+
+    Map<String, MappedTable> tables() {
+        return tables;
+    }
+
+    /**
+     * Gibt die Einträge in der Reihenfolge der inhalte-Tabelle an {@code listener}, jeweils mit ihren
+     * werte-Zeilen in Tabellenreihenfolge, so wie sie bei der Extraktion angefallen sind. Damit lässt
+     * sich ein gespeicherter Auftrag erneut umwandeln, ohne die Dokumente noch einmal zu parsen.
+     * <p>
+     * Die werte-Zeilen werden vorab über ihren inhalt_id-Code verkettet (ein int pro Zeile), danach
+     * wird jede Tabelle genau einmal gelesen.
+     */
+    public void forEachEntry(EntryListener listener) {
+        MappedTable inhalte = tables.get("inhalte");
+        MappedTable werte = tables.get("werte");
+        MappedColumn inhaltId = inhalte.column("inhalt_id");
+        MappedColumn sectionCode = inhalte.column("section_code");
+        MappedColumn.DictionaryColumn werteInhalt = (MappedColumn.DictionaryColumn) werte.column("inhalt_id");
+        MappedColumn keyPath = werte.column("key_path");
+        MappedColumn value = werte.column("value");
+
+        int codes = werteInhalt.dictionarySize();
+        int[] first = new int[codes];
+        int[] last = new int[codes];
+        int[] next = new int[werte.rowCount()];
+        Arrays.fill(first, -1);
+        for (int row = 0; row < werte.rowCount(); row++) {
+            next[row] = -1;
+            int code = werteInhalt.code(row);
+            if (code < 0) {
+                continue;
+            }
+            if (first[code] < 0) {
+                first[code] = row;
+            } else {
+                next[last[code]] = row;
+            }
+            last[code] = row;
+        }
+        Map<String, Integer> codeOf = new HashMap<>(2 * codes);
+        for (int code = 0; code < codes; code++) {
+            codeOf.put(werteInhalt.lookup(code), code);
+        }
+
+        for (int row = 0; row < inhalte.rowCount(); row++) {
+            String id = (String) inhaltId.get(row);
+            listener.startEntry(id, (String) sectionCode.get(row));
+            Integer code = id == null ? null : codeOf.get(id);
+            if (code != null) {
+                for (int w = first[code]; w >= 0; w = next[w]) {
+                    listener.value((String) keyPath.get(w), (String) value.get(w));
+                }
+            }
+            listener.endEntry();
+        }
+    }
+}
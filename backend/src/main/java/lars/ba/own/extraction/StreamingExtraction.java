@@ -0,0 +1,297 @@
+package lars.ba.own.extraction;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.ParserFactories;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * {@code POST /extract/xml/stream}: ein CDA-Dokument als roher Body (application/xml), das schon
+ * während des Empfangs geparst und extrahiert wird. Antwort wie bei /extract/xml.
+ * <p>
+ * Die Body-Puffer von Vert.x werden direkt in den nicht blockierenden Aalto-Parser eingespeist
+ * ({@link CDAProcessor.StreamingDocument}), es gibt keine temporäre Datei. Jeder Puffer wird auf dem
+ * {@link ExtractionExecutor} verarbeitet; währenddessen ist der Request pausiert, damit die Puffer
+ * der Reihe nach ankommen und ein langsamer Parser den Client bremst statt Speicher zu füllen.
+ * Die Antwort wird ebenso stückweise geschrieben, ohne das ganze JSON im Speicher zu halten, aber
+ * auf einem Vert.x-Worker statt auf dem {@link ExtractionExecutor}: wartet das Schreiben auf einen
+ * langsam lesenden Client, belegt es keinen der Threads, die /extract/xml, Jobs und
+ * /convert/cda-xml-to-fhir brauchen.
+ * <p>
+ * Als Vert.x-Route registriert, weil RESTEasy den Body erst vollständig einliest. Der Dateiname für
+ * die dokumente-Tabelle kommt aus dem Query-Parameter {@code name}.
+ */
+@ApplicationScoped
+public class StreamingExtraction {
+
+    private static final Logger LOG = Logger.getLogger(StreamingExtraction.class);
+    private static final String PATH = "/extract/xml/stream";
+    private static final String DEFAULT_FILE_NAME = "upload.xml";
+
+    private final ParserFactories parserFactories;
+    private final ExtractionExecutor extractionExecutor;
+    private final ExtractionCache extractionCache;
+    private final ConversionMetrics metrics;
+    private final long maxBytes;
+
+    public StreamingExtraction(@ConfigProperty(name = "cda-extraction.stream.max-size-mb", defaultValue = "512") long maxSizeMb,
+                               ParserFactories parserFactories,
+                               ExtractionExecutor extractionExecutor,
+                               ExtractionCache extractionCache,
+                               ConversionMetrics metrics) {
+        this.maxBytes = maxSizeMb * 1024 * 1024;
+        this.parserFactories = parserFactories;
+        this.extractionExecutor = extractionExecutor;
+        this.extractionCache = extractionCache;
+        this.metrics = metrics;
+    }
+
+    void register(@Observes Router router) {
+        router.post(PATH).handler(this::handle);
+    }
+
+    private void handle(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        String contentType = request.getHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType == null || !(contentType.startsWith("application/xml") || contentType.startsWith("text/xml"))) {
+            reject(request, 415, "Erwartet wird ein XML-Dokument als Body (application/xml)");
+            return;
+        }
+        String fileName = request.getParam("name", DEFAULT_FILE_NAME);
+        if (!fileName.toLowerCase().endsWith(".xml")) {
+            reject(request, 400, "Es werden nur XML-Dateien akzeptiert");
+            return;
+        }
+
+        CDAProcessor processor = new CDAProcessor(CDAProcessor.ExtractionMode.STREAM, parserFactories,
+                extractionCache, metrics);
+        processor.createAuftrag("Mein CDA Import");
+        CDAProcessor.StreamingDocument document = processor.openDocument(fileName);
+
+        Context context = routingContext.vertx().getOrCreateContext();
+        Executor executor = extractionExecutor.executor();
+        // gesetzt, sobald eine Antwort unterwegs ist; weitere Puffer werden dann ignoriert
+        boolean[] answered = new boolean[1];
+        // gesetzt, solange ein Puffer oder das Dokumentende auf dem Executor verarbeitet wird
+        boolean[] busy = new boolean[1];
+
+        request.handler(buffer -> {
+            if (answered[0]) {
+                return;
+            }
+            if (document.bytes() + buffer.length() > maxBytes) {
+                answered[0] = true;
+                document.close();
+                reject(request, 413, "Dokument größer als " + maxBytes / (1024 * 1024) + " MB");
+                return;
+            }
+            request.pause();
+            busy[0] = true;
+            byte[] bytes = buffer.getBytes();
+            executor.execute(() -> {
+                try {
+                    document.feed(bytes, 0, bytes.length);
+                    context.runOnContext(ignored -> {
+                        busy[0] = false;
+                        if (answered[0]) {
+                            // während des Puffers abgebrochen
+                            document.close();
+                        } else {
+                            request.resume();
+                        }
+                    });
+                } catch (Exception e) {
+                    context.runOnContext(ignored -> {
+                        busy[0] = false;
+                        fail(request, document, answered, e);
+                    });
+                }
+            });
+        });
+        request.exceptionHandler(e -> {
+            // ein laufender Puffer wird noch fertig verarbeitet und schließt das Dokument danach
+            LOG.debugf(e, "Upload von %s abgebrochen", fileName);
+            answered[0] = true;
+            if (!busy[0]) {
+                document.close();
+            }
+        });
+        request.endHandler(ignored -> {
+            if (answered[0]) {
+                return;
+            }
+            // finish schließt das Dokument selbst
+            busy[0] = true;
+            executor.execute(() -> {
+                try {
+                    document.finish();
+                    metrics.documents("extraction-stream", 1);
+                } catch (Exception e) {
+                    context.runOnContext(done -> fail(request, document, answered, e));
+                    return;
+                } finally {
+                    document.close();
+                }
+                context.executeBlocking(() -> {
+                    serialize(processor.getDataFrames(), new ResponseOutputStream(request.response(), context));
+                    return null;
+                }, false).onFailure(e -> {
+                    // Status und erste Zeilen sind schon gesendet, nur noch abbrechen
+                    LOG.warnf(e, "Antwort von %s abgebrochen", PATH);
+                    request.connection().close();
+                });
+            });
+        });
+        request.resume();
+    }
+
+    private void serialize(DataFrames results, OutputStream output) throws IOException {
+        long start = System.nanoTime();
+        try (JsonGenerator generator = parserFactories.objectMapper().createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            DataFramesJsonWriter.write(results, generator);
+        }
+        // erst nach vollständigem JSON beenden, bei einem Fehler wird die Verbindung geschlossen
+        output.close();
+        metrics.record(Stage.SERIALIZE, System.nanoTime() - start);
+    }
+
+    private static void fail(HttpServerRequest request, CDAProcessor.StreamingDocument document, boolean[] answered,
+                             Exception e) {
+        document.close();
+        if (answered[0]) {
+            return;
+        }
+        answered[0] = true;
+        if (e instanceof XMLStreamException || e instanceof IllegalArgumentException) {
+            reject(request, 400, "Ungültiges Dokument: " + e.getMessage());
+        } else {
+            LOG.warnf(e, "Extraktion von %s fehlgeschlagen", PATH);
+            reject(request, 500, "Fehler beim Upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Antwortet sofort. Ist der Body noch nicht vollständig gelesen, wird die Verbindung danach
+     * geschlossen, statt den Rest zu empfangen.
+     */
+    private static void reject(HttpServerRequest request, int status, String message) {
+        HttpServerResponse response = request.response();
+        if (response.ended()) {
+            return;
+        }
+        boolean close = !request.isEnded() && request.version() != HttpVersion.HTTP_2;
+        if (close) {
+            response.putHeader(HttpHeaders.CONNECTION, "close");
+        }
+        response.setStatusCode(status)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; charset=UTF-8")
+                .end(message)
+                .onComplete(ignored -> {
+                    if (close) {
+                        request.connection().close();
+                    }
+                });
+    }
+
+    /**
+     * Schreibt die Antwort in Stücken von 64 KB von einem Vert.x-Worker aus. Ist die
+     * Schreib-Warteschlange der Verbindung voll, wartet der Worker, bis der Client wieder liest.
+     */
+    private static final class ResponseOutputStream extends OutputStream {
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        private final HttpServerResponse response;
+        private final Context context;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        private int count;
+
+        ResponseOutputStream(HttpServerResponse response, Context context) {
+            this.response = response;
+            this.context = context;
+            context.runOnContext(ignored -> {
+                response.setChunked(true).putHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+                response.closeHandler(done -> closed.complete(null));
+            });
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == CHUNK_SIZE) {
+                flushChunk();
+            }
+            chunk[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == CHUNK_SIZE) {
+                    flushChunk();
+                }
+                int n = Math.min(length, CHUNK_SIZE - count);
+                System.arraycopy(data, offset, chunk, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+            context.runOnContext(ignored -> response.end());
+        }
+
+        private void flushChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            Buffer buffer = Buffer.buffer(Arrays.copyOf(chunk, count));
+            count = 0;
+
+            CompletableFuture<Void> writable = new CompletableFuture<>();
+            context.runOnContext(ignored -> {
+                response.write(buffer);
+                if (response.writeQueueFull()) {
+                    response.drainHandler(drained -> writable.complete(null));
+                } else {
+                    writable.complete(null);
+                }
+            });
+            try {
+                CompletableFuture.anyOf(writable, closed).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Antwort abgebrochen");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            if (closed.isDone()) {
+                throw new IOException("Verbindung vom Client geschlossen");
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package lars.ba.own.mapping;
+
+import jakarta.json.Json;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Schreibt den Rahmen eines FHIR-Bundles (collection) von Hand, die Einträge kommen bereits kodiert
+ * aus {@link CdaToFhirConverter#encodeEntry}. So kann das Bundle Eintrag für Eintrag gestreamt werden.
+ */
+final class BundleWriter implements ResourceSink {
+
+    private final Writer output;
+    private boolean firstEntry = true;
+
+    BundleWriter(Writer output) throws IOException {
+        this.output = output;
+        output.write("{\"resourceType\":\"Bundle\",\"type\":\"collection\"");
+    }
+
+    /**
+     * Hängt eine kodierte Ressource als Bundle-Eintrag an.
+     */
+    @Override
+    public void resource(EncodedResource resource) throws IOException {
+        // wie bei Bundle.encode entfällt "entry" ganz, wenn es keine Einträge gibt
+        output.write(firstEntry ? ",\"entry\":[" : ",");
+        output.write("{\"fullUrl\":");
+        output.write(Json.createValue(resource.fullUrl).toString());
+        output.write(",\"resource\":");
+        output.write(resource.json);
+        output.write('}');
+        firstEntry = false;
+    }
+
+    void finish() throws IOException {
+        if (!firstEntry) {
+            output.write(']');
+        }
+        output.write('}');
+    }
+}
@@ -0,0 +1,18 @@
+package lars.ba.own.mapping;
+
+/**
+ * Ein CDA-Eintrag, bereit für die Umwandlung: inhalt_id, Section-Code und die Werte in den Slots des
+ * Mapping-Plans. Kommt entweder aus dem CDA-JSON ({@link CdaEntryReader}) oder direkt aus der
+ * Extraktion ({@link CdaPipelineResource}).
+ */
+final class CdaEntry {
+    final String inhaltId;
+    final String sectionCode;
+    final EntryValues values;
+
+    CdaEntry(String inhaltId, String sectionCode, EntryValues values) {
+        this.inhaltId = inhaltId;
+        this.sectionCode = sectionCode;
+        this.values = values;
+    }
+}
@@ -0,0 +1,149 @@
+package lars.ba.own.mapping;
+
+import jakarta.json.JsonObject;
+import jakarta.json.stream.JsonParser;
+
+/**
+ * Liest die {inhalt, inhalt_id, werte}-Einträge eines CDA-JSON-Arrays direkt vom {@link JsonParser}.
+ * <p>
+ * Die werte-Zeilen werden nicht als JsonObject aufgebaut: key_path und value kommen als Events und
+ * landen sofort in den Slots von {@link EntryValues}. Zeilen, deren key_path das Mapping nicht
+ * verwendet, kosten damit nur einen Lookup. String-Werte werden so übernommen, wie der Parser sie
+ * dekodiert hat, Anführungszeichen im Wert bleiben also erhalten.
+ */
+final class CdaEntryReader {
+
+    /**
+     * key_path der Zeile noch nicht gelesen
+     */
+    private static final int UNKNOWN = -2;
+
+    private final JsonParser parser;
+    private final MappingPlan plan;
+
+    /**
+     * @param parser steht hinter dem öffnenden {@code [} des Arrays
+     */
+    CdaEntryReader(JsonParser parser, MappingPlan plan) {
+        this.parser = parser;
+        this.plan = plan;
+    }
+
+    /**
+     * Nächster Eintrag oder {@code null} am Ende des Arrays.
+     */
+    CdaEntry next() {
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_ARRAY) {
+                return null;
+            }
+            if (event != JsonParser.Event.START_OBJECT) {
+                throw new IllegalArgumentException("Erwartet wird ein JSON-Objekt pro CDA-Eintrag");
+            }
+            return readEntry();
+        }
+        return null;
+    }
+
+    private CdaEntry readEntry() {
+        String inhaltId = null;
+        String sectionCode = null;
+        EntryValues values = plan.newEntryValues();
+
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            String field = parser.getString();
+            event = parser.next();
+            switch (field) {
+                case "inhalt" -> {
+                    if (event != JsonParser.Event.START_OBJECT) {
+                        throw new IllegalArgumentException("inhalt muss ein JSON-Objekt sein");
+                    }
+                    JsonObject inhalt = parser.getObject();
+                    sectionCode = inhalt.getString("section_code");
+                }
+                case "inhalt_id" -> inhaltId = event == JsonParser.Event.VALUE_STRING ? parser.getString() : skip(event);
+                case "werte" -> {
+                    if (event == JsonParser.Event.START_ARRAY) {
+                        readWerte(values);
+                    } else {
+                        skip(event);
+                    }
+                }
+                default -> skip(event);
+            }
+        }
+
+        if (sectionCode == null) {
+            throw new IllegalArgumentException("CDA-Eintrag ohne inhalt.section_code");
+        }
+        return new CdaEntry(inhaltId, sectionCode, values);
+    }
+
+    private void readWerte(EntryValues values) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event != JsonParser.Event.START_OBJECT) {
+                skip(event);
+                continue;
+            }
+
+            // der Exporter schreibt key_path vor value: unbekannte Pfade werden dann gar nicht erst gelesen
+            int slot = UNKNOWN;
+            String value = null;
+            boolean hasValue = false;
+            while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+                String field = parser.getString();
+                event = parser.next();
+                switch (field) {
+                    case "key_path" -> slot = event == JsonParser.Event.VALUE_STRING
+                            ? plan.slot(parser.getString())
+                            : skipUnmapped(event);
+                    case "value" -> {
+                        if (slot == MappingPlan.UNMAPPED) {
+                            skip(event);
+                        } else {
+                            value = valueText(event);
+                            hasValue = true;
+                        }
+                    }
+                    default -> skip(event);
+                }
+            }
+            if (slot >= 0 && hasValue) {
+                values.put(slot, value);
+            }
+        }
+    }
+
+    /**
+     * Textform eines Wertes: Strings dekodiert, Zahlen wie im JSON, sonst die JSON-Darstellung.
+     */
+    private String valueText(JsonParser.Event event) {
+        return switch (event) {
+            case VALUE_STRING, VALUE_NUMBER -> parser.getString();
+            case VALUE_TRUE -> "true";
+            case VALUE_FALSE -> "false";
+            case VALUE_NULL -> "null";
+            default -> parser.getValue().toString();
+        };
+    }
+
+    private int skipUnmapped(JsonParser.Event event) {
+        skip(event);
+        return MappingPlan.UNMAPPED;
+    }
+
+    /**
+     * Überspringt den Wert, auf dem der Parser steht, und liefert {@code null}.
+     */
+    private String skip(JsonParser.Event event) {
+        if (event == JsonParser.Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (event == JsonParser.Event.START_ARRAY) {
+            parser.skipArray();
+        }
+        return null;
+    }
+}
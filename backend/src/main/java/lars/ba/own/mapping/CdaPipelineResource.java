@@ -0,0 +1,218 @@
+package lars.ba.own.mapping;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import io.vertx.ext.web.RoutingContext;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.NdjsonExport;
+import lars.ba.common.NdjsonExports;
+import lars.ba.common.ParserFactories;
+import lars.ba.common.RequestTiming;
+import lars.ba.own.extraction.CDAProcessor;
+import lars.ba.own.extraction.EntryListener;
+import lars.ba.own.extraction.ExtractionExecutor;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestForm;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * CDA-XML direkt zu FHIR, ohne den Umweg über /extract/xml und /convert/cda-to-fhir.
+ * <p>
+ * Die Einträge gehen während der Extraktion als Objekte an den {@link CdaToFhirConverter}: keine
+ * inhalte-/werte-Tabellen, kein JSON dazwischen. Die Dateien laufen parallel auf dem
+ * {@link ExtractionExecutor}, jede Datei wandelt ihre Einträge auf ihrem eigenen Thread um. Das
+ * Bundle enthält die Einträge in Upload- und Dokumentreihenfolge.
+ * <p>
+ * Gepuffert werden nur die kodierten Ressourcen je Dokument: ein Dokument wird geschrieben, sobald es
+ * und alle vorher hochgeladenen fertig sind, und danach freigegeben. Die Antwort beginnt, wenn das
+ * erste Dokument fertig ist; scheitert es, gibt es noch einen Fehlerstatus. Spätere Fehler brechen
+ * die bereits laufende Antwort ab.
+ * <p>
+ * Mit {@code _outputFormat=application/fhir+ndjson} schreibt jeder Thread seine Ressourcen sofort in
+ * einen NDJSON-Export (eine Datei pro Ressourcentyp), statt sie für das Bundle zu sammeln. Die
+ * Antwort ist dann das Bulk-Data-Manifest.
+ */
+@Path("/convert")
+public class CdaPipelineResource {
+
+    @ConfigProperty(name = "cda-extraction.mode", defaultValue = "stream")
+    CDAProcessor.ExtractionMode extractionMode;
+
+    @Inject
+    ExtractionExecutor extractionExecutor;
+
+    @Inject
+    ParserFactories parserFactories;
+
+    @Inject
+    CdaToFhirConverter converter;
+
+    @Inject
+    ConversionMetrics metrics;
+
+    @Inject
+    NdjsonExports ndjsonExports;
+
+    @POST
+    @Path("/cda-xml-to-fhir")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response convertCdaXmlToFhir(@RestForm("files") List<FileUpload> files,
+                                        @QueryParam("_outputFormat") String outputFormat,
+                                        @Context UriInfo uriInfo,
+                                        RoutingContext routingContext) {
+        metrics.record(Stage.RECEIVE, RequestTiming.elapsedNanos(routingContext));
+        for (FileUpload file : files) {
+            if (!file.fileName().toLowerCase().endsWith(".xml")) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Es werden nur XML-Dateien akzeptiert")
+                        .build();
+            }
+        }
+
+        if (NdjsonExports.isNdjson(outputFormat)) {
+            return convertToNdjson(files, uriInfo);
+        }
+
+        List<Future<ConvertingListener>> documents;
+        try {
+            CDAProcessor processor = new CDAProcessor(extractionMode, parserFactories, null, metrics);
+            processor.createAuftrag("CDA zu FHIR");
+            documents = processor.submitEntries(files, extractionExecutor.executor(),
+                    () -> new ConvertingListener(converter, null));
+        } catch (Exception e) {
+            return Response.serverError()
+                    .entity("Fehler beim Upload: " + e.getMessage())
+                    .build();
+        }
+        try {
+            if (!documents.isEmpty()) {
+                documents.get(0).get();
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            documents.forEach(document -> document.cancel(true));
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            return Response.serverError()
+                    .entity("Fehler beim Upload: " + cause.getMessage())
+                    .build();
+        }
+
+        StreamingOutput json = output -> {
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                BundleWriter bundle = new BundleWriter(writer);
+                for (Future<ConvertingListener> document : documents) {
+                    ConvertingListener listener = await(document);
+                    for (EncodedResource resource : listener.resources) {
+                        bundle.resource(resource);
+                    }
+                    listener.resources.clear();
+                    writer.flush();
+                }
+                bundle.finish();
+                writer.flush();
+                metrics.documents("cda-xml-to-fhir", files.size());
+            } finally {
+                // bei Fehlern oder abgebrochener Verbindung laufen die übrigen Dateien nicht weiter
+                documents.forEach(document -> document.cancel(true));
+            }
+        };
+
+        return Response.ok(json).build();
+    }
+
+    private static ConvertingListener await(Future<ConvertingListener> document) throws IOException {
+        try {
+            return document.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Dokument konnte nicht umgewandelt werden: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Umwandlung unterbrochen");
+        }
+    }
+
+    private Response convertToNdjson(List<FileUpload> files, UriInfo uriInfo) {
+        try (NdjsonExport export = ndjsonExports.create()) {
+            CDAProcessor processor = new CDAProcessor(extractionMode, parserFactories, null, metrics);
+            processor.createAuftrag("CDA zu FHIR");
+            processor.extractEntries(files, extractionExecutor.executor(), () -> new ConvertingListener(converter, export));
+            metrics.documents("cda-xml-to-fhir", files.size());
+            return Response.ok(export.manifest(uriInfo.getBaseUri(), uriInfo.getRequestUri().toString())).build();
+        } catch (Exception e) {
+            return Response.serverError()
+                    .entity("Fehler beim Upload: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Wandelt jeden Eintrag eines Dokuments sofort um und behält nur die kodierte Ressource, bis das
+     * Dokument geschrieben ist, bzw. schreibt sie direkt in den NDJSON-Export.
+     */
+    private static final class ConvertingListener implements EntryListener {
+        private final CdaToFhirConverter converter;
+        /** {@code null}: Ressourcen für das Bundle sammeln */
+        private final NdjsonExport export;
+        private final List<EncodedResource> resources = new ArrayList<>();
+        private CdaEntry current;
+
+        ConvertingListener(CdaToFhirConverter converter, NdjsonExport export) {
+            this.converter = converter;
+            this.export = export;
+        }
+
+        @Override
+        public void startEntry(String inhaltId, String sectionCode) {
+            current = converter.newEntry(inhaltId, sectionCode);
+        }
+
+        @Override
+        public void value(String keyPath, String value) {
+            current.values.put(keyPath, value);
+        }
+
+        @Override
+        public void endEntry() {
+            EncodedResource resource = converter.encodeEntry(current);
+            current = null;
+            if (resource == null) {
+                return;
+            }
+            if (export == null) {
+                resources.add(resource);
+                return;
+            }
+            try {
+                export.resource(resource.resourceType, resource.json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
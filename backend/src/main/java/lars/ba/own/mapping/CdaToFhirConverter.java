@@ -1,37 +1,55 @@
 package lars.ba.own.mapping;
 
-import ca.uhn.fhir.context.FhirContext;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.json.Json;
-import jakarta.json.JsonArray;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonParser;
+import lars.ba.common.ConversionMetrics;
+import lars.ba.common.ConversionMetrics.Stage;
+import lars.ba.common.ParserFactories;
+import lars.ba.own.extraction.EntryListener;
+import lars.ba.own.extraction.StoredAuftrag;
 import org.hl7.fhir.r4.model.*;
+import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+@Startup
 @ApplicationScoped
 public class CdaToFhirConverter {
 
-    private FhirContext fhirContext = FhirContext.forR4();
+    private static final Logger LOG = Logger.getLogger(CdaToFhirConverter.class);
+
+    @Inject
+    ParserFactories parserFactories;
 
     @Inject
     CdaFhirMappingConfig mappingConfig;
 
-    private String findValueFromPaths(Map<String, String> valueMap, List<String> paths, String defaultValue) {
-        if (paths == null || paths.isEmpty()) {
-            return defaultValue;
-        }
+    @Inject
+    ConversionExecutor conversionExecutor;
 
-        for (String path : paths) {
-            if (valueMap.containsKey(path)) {
-                return valueMap.get(path);
-            }
-        }
+    @Inject
+    ConversionMetrics metrics;
 
-        return defaultValue;
+    /**
+     * Einmal beim Start aus {@link #mappingConfig} übersetzt, siehe {@link MappingPlan}
+     */
+    private MappingPlan mappingPlan;
+
+    @PostConstruct
+    void compileMappingPlan() {
+        mappingPlan = MappingPlan.compile(mappingConfig);
+        metrics.sectionCodes(SECTION_TO_RESOURCE_TYPE.keySet());
     }
 
     private static final Map<String, String> SECTION_TO_RESOURCE_TYPE = Map.ofEntries(
@@ -42,68 +60,188 @@ public class CdaToFhirConverter {
     );
 
     /**
-     * Konvertiert CDA-JSON zu FHIR-Ressourcen
+     * Öffnet das CDA-JSON zum eintragsweisen Lesen. Ist die Eingabe kein JSON-Array, schlägt das
+     * sofort fehl, also bevor etwas in die Antwort geschrieben wurde.
      */
-    public String convertCdaToFhir(String cdaJson) {
-        // Parse JSON
-        jakarta.json.JsonReader jsonReader = Json.createReader(new java.io.StringReader(cdaJson));
-        JsonArray cdaEntries = jsonReader.readArray();
-        jsonReader.close();
-
-        // Ergebnis-Bundle erstellen
-        Bundle resultBundle = new Bundle();
-        resultBundle.setType(Bundle.BundleType.COLLECTION);
-
-        // CDA-Einträge verarbeiten
-        for (JsonValue entryValue : cdaEntries) {
-            JsonObject entry = entryValue.asJsonObject();
-            String sectionCode = entry.getJsonObject("inhalt").getString("section_code");
-
-            // Generisches Processing basierend auf Sektionstyp
-            processEntry(entry, sectionCode, resultBundle);
+    public JsonParser openEntries(InputStream cdaJson) {
+        JsonParser entries = Json.createParser(cdaJson);
+        if (!entries.hasNext() || entries.next() != JsonParser.Event.START_ARRAY) {
+            entries.close();
+            throw new IllegalArgumentException("Erwartet wird ein JSON-Array von CDA-Einträgen");
         }
+        return entries;
+    }
 
-        // FHIR-Bundle zu JSON konvertieren
-        return fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(resultBundle);
+    /**
+     * Konvertiert CDA-JSON zu einem FHIR-Bundle (collection) und schreibt es kompakt nach {@code output}.
+     * <p>
+     * Die Einträge werden nacheinander gelesen und auf dem {@link ConversionExecutor} parallel
+     * umgewandelt und kodiert. Geschrieben wird immer der älteste ausstehende Eintrag, die Reihenfolge
+     * im Bundle entspricht also der Eingabe. Es sind höchstens {@link ConversionExecutor#window()}
+     * Einträge gleichzeitig im Speicher.
+     *
+     * @param entries Parser aus {@link #openEntries}, steht hinter dem öffnenden {@code [}
+     */
+    public void convertCdaToFhir(JsonParser entries, Writer output) throws IOException {
+        BundleWriter bundle = new BundleWriter(output);
+        convertCdaToFhir(entries, bundle);
+        bundle.finish();
+    }
+
+    /**
+     * Wie {@link #convertCdaToFhir(JsonParser, Writer)}, übergibt die Ressourcen aber in
+     * Eingabereihenfolge an {@code sink}, z.B. an einen NDJSON-Export.
+     */
+    void convertCdaToFhir(JsonParser entries, ResourceSink sink) throws IOException {
+        OrderedConversion conversion = new OrderedConversion(sink);
+        boolean completed = false;
+        try {
+            CdaEntryReader reader = new CdaEntryReader(entries, mappingPlan);
+            CdaEntry entry;
+            while ((entry = reader.next()) != null) {
+                conversion.submit(entry);
+            }
+            conversion.finish();
+            completed = true;
+        } finally {
+            if (!completed) {
+                conversion.cancel();
+            }
+        }
+    }
+
+    /**
+     * Wandelt einen gespeicherten Auftrag um, ohne Dokumente oder CDA-JSON noch einmal zu lesen. Die
+     * Einträge kommen aus {@link StoredAuftrag#forEachEntry}, umgewandelt wird wie bei
+     * {@link #convertCdaToFhir(JsonParser, ResourceSink)} parallel und in Reihenfolge.
+     */
+    void convertStored(StoredAuftrag auftrag, ResourceSink sink) throws IOException {
+        OrderedConversion conversion = new OrderedConversion(sink);
+        boolean completed = false;
+        try {
+            auftrag.forEachEntry(new EntryListener() {
+                private CdaEntry current;
+
+                @Override
+                public void startEntry(String inhaltId, String sectionCode) {
+                    current = newEntry(inhaltId, sectionCode);
+                }
+
+                @Override
+                public void value(String keyPath, String value) {
+                    current.values.put(keyPath, value);
+                }
+
+                @Override
+                public void endEntry() {
+                    try {
+                        conversion.submit(current);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    current = null;
+                }
+            });
+            conversion.finish();
+            completed = true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (!completed) {
+                conversion.cancel();
+            }
+        }
+    }
+
+    private static void write(ResourceSink sink, EncodedResource resource) throws IOException {
+        if (resource != null) {
+            sink.resource(resource);
+        }
+    }
+
+    /**
+     * Leerer Eintrag, dessen Werte der Aufrufer über {@link EntryValues#put(String, String)} füllt.
+     */
+    CdaEntry newEntry(String inhaltId, String sectionCode) {
+        return new CdaEntry(inhaltId, sectionCode, mappingPlan.newEntryValues());
     }
 
     /**
-     * Verarbeitet einen CDA-Eintrag basierend auf seinem Sektionstyp
+     * Wandelt einen Eintrag um und kodiert die Resource kompakt, {@code null} ohne Resource.
+     * Threadsicher, solange jeder Eintrag nur von einem Thread benutzt wird.
      */
-    private void processEntry(JsonObject entry, String sectionCode, Bundle bundle) {
+    EncodedResource encodeEntry(CdaEntry entry) {
+        // Generisches Processing basierend auf Sektionstyp
+        long start = System.nanoTime();
+        Resource resource = processEntry(entry.inhaltId, entry.sectionCode, entry.values);
+        long built = System.nanoTime();
+        metrics.record(Stage.BUILD, built - start);
+        if (resource == null) {
+            return null;
+        }
+        EncodedResource encoded = new EncodedResource(resource.fhirType(), resource.fhirType() + "/" + resource.getId(),
+                parserFactories.fhirJsonParser().encodeResourceToString(resource));
+        metrics.record(Stage.ENCODE, System.nanoTime() - built);
+        return encoded;
+    }
+
+    private static EncodedResource await(CompletableFuture<EncodedResource> future) {
         try {
-            // Bestimme den FHIR-Ressourcentyp basierend auf dem Sektionstyp
-            String resourceType = SECTION_TO_RESOURCE_TYPE.getOrDefault(sectionCode, null);
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
-            // Map erstellen für einfacheren Zugriff auf Werte
-            Map<String, String> valueMap = createValueMap(entry);
+    /**
+     * Verarbeitet einen CDA-Eintrag basierend auf seinem Sektionstyp. Sektionen ohne Mapping werden
+     * als {@code cda.entries.unmapped} gezählt, nur Ausnahmen als {@code cda.entries.failed}.
+     *
+     * @return die erzeugte Resource oder {@code null}, wenn es für die Sektion keine gibt
+     */
+    private Resource processEntry(String inhaltId, String sectionCode, EntryValues values) {
+        // Bestimme den FHIR-Ressourcentyp basierend auf dem Sektionstyp
+        String resourceType = sectionCode == null ? null : SECTION_TO_RESOURCE_TYPE.get(sectionCode);
+        if (resourceType == null) {
+            LOG.debugf("Kein Mapping für Sektion %s", sectionCode);
+            metrics.unmappedEntry(sectionCode);
+            return null;
+        }
+
+        try {
+            if (inhaltId == null) {
+                throw new IllegalArgumentException("inhalt_id fehlt");
+            }
 
             // Resource basierend auf Typ erstellen und konfigurieren
-            Resource resource = createResource(resourceType, entry.getString("inhalt_id"), valueMap, sectionCode);
+            Resource resource = createResource(resourceType, inhaltId, values, sectionCode);
 
-            // Zum Bundle hinzufügen, wenn Resource erstellt wurde
-            if (resource != null) {
-                bundle.addEntry()
-                        .setResource(resource)
-                        .setFullUrl(resourceType + "/" + resource.getId());
-            } else {
-                System.out.println("Konnte keine Resource für Sektion erstellen: " + sectionCode);
+            if (resource == null) {
+                LOG.debugf("Konnte keine Resource für Sektion erstellen: %s", sectionCode);
+                metrics.unmappedEntry(sectionCode);
             }
+            return resource;
         } catch (Exception e) {
-            System.err.println("Fehler bei der Verarbeitung von Sektion " + sectionCode + ": " + e.getMessage());
-            e.printStackTrace();
+            // kommt pro Eintrag vor, der Stacktrace nur auf debug
+            LOG.warnf("Fehler bei der Verarbeitung von Sektion %s: %s", sectionCode, e.getMessage());
+            LOG.debug("Stacktrace", e);
+            metrics.failedEntry(sectionCode);
+            return null;
         }
     }
 
     /**
      * Erstellt eine FHIR-Resource basierend auf dem angegebenen Typ und den Werten
      */
-    private Resource createResource(String resourceType, String inhaltId, Map<String, String> valueMap, String sectionCode) {
+    private Resource createResource(String resourceType, String inhaltId, EntryValues values, String sectionCode) {
         return switch (resourceType) {
-            case "MedicationAdministration" -> createMedicationAdministration(inhaltId, valueMap);
-            case "Observation" -> createObservation(inhaltId, valueMap, sectionCode);
+            case "MedicationAdministration" -> createMedicationAdministration(inhaltId, values);
+            case "Observation" -> createObservation(inhaltId, values, sectionCode);
             default ->
-//                    createGenericObservation(inhaltId, valueMap, sectionCode);
+//                    createGenericObservation(inhaltId, values, sectionCode);
                 null;
         };
     }
@@ -138,36 +276,6 @@ public class CdaToFhirConverter {
         }
     }
 
-    /**
-     * Erstellt eine Map mit Schlüssel-Wert-Paaren aus dem CDA-JSON-Objekt für einfacheren Zugriff
-     */
-    private Map<String, String> createValueMap(JsonObject entry) {
-        Map<String, String> valueMap = new HashMap<>();
-
-        // Prüfen, ob es ein "werte"-Array im JSON gibt
-        if (entry.containsKey("werte") && entry.get("werte").getValueType() == JsonValue.ValueType.ARRAY) {
-            JsonArray werteArray = entry.getJsonArray("werte");
-
-            // Durch alle Einträge im werte-Array iterieren
-            for (int i = 0; i < werteArray.size(); i++) {
-                if (werteArray.get(i).getValueType() == JsonValue.ValueType.OBJECT) {
-                    JsonObject werteObj = werteArray.get(i).asJsonObject();
-
-                    // Prüfen, ob key_path und value existieren
-                    if (werteObj.containsKey("key_path") && werteObj.containsKey("value")) {
-                        String keyPath = werteObj.getString("key_path");
-                        String value = werteObj.get("value").toString().replaceAll("\"", "");
-
-                        // key_path als Schlüssel und value als Wert speichern
-                        valueMap.put(keyPath, value);
-                    }
-                }
-            }
-        }
-
-        return valueMap;
-    }
-
     private double castSaveToDouble(String value) {
         try {
             return Double.parseDouble(value);
@@ -180,66 +288,53 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine MedicationAdministration-Resource basierend auf der Konfiguration
      */
-    private MedicationAdministration createMedicationAdministration(String inhaltId, Map<String, String> valueMap) {
+    private MedicationAdministration createMedicationAdministration(String inhaltId, EntryValues values) {
         MedicationAdministration medicationAdministration = new MedicationAdministration();
         medicationAdministration.setId("med-"+ inhaltId);
 
         // Profile aus der Konfiguration
-        medicationAdministration.setMeta(new Meta().addProfile(
-                mappingConfig.resources().medicationAdministration().profile()
-        ));
+        medicationAdministration.setMeta(new Meta().addProfile(mappingPlan.medicationProfile));
 
         medicationAdministration.setSubject(new Reference("Patient/3"));
 
         // Status aus der Konfiguration
-        medicationAdministration.setStatus(MedicationAdministration.MedicationAdministrationStatus.fromCode(
-                mappingConfig.resources().medicationAdministration().status()
-        ));
+        medicationAdministration.setStatus(MedicationAdministration.MedicationAdministrationStatus.fromCode(mappingPlan.medicationStatus));
 
         // Medikation mit Konfiguration aus externen Pfaden
-        String medicationCode = findValueFromPaths(valueMap,
-                mappingConfig.resources().medicationAdministration().paths().medication().code().paths(), null);
+        String medicationCode = values.get(mappingPlan.medicationCode);
 
         if (medicationCode != null) {
             CodeableConcept medicationCodeConcept = new CodeableConcept();
             Coding coding = medicationCodeConcept.addCoding();
 
-            coding.setSystem(findValueFromPaths(valueMap,
-                    mappingConfig.resources().medicationAdministration().paths().medication().system().paths(),
-                    mappingConfig.resources().medicationAdministration().paths().medication().system().default_()));
+            coding.setSystem(values.get(mappingPlan.medicationSystem));
 
             coding.setCode(medicationCode);
 
-            coding.setDisplay(findValueFromPaths(valueMap,
-                    mappingConfig.resources().medicationAdministration().paths().medication().display().paths(), ""));
+            coding.setDisplay(values.get(mappingPlan.medicationDisplay));
 
             medicationAdministration.setMedication(medicationCodeConcept);
         }
 
         // Dosierung mit Konfiguration aus externen Pfaden
-        String doseValue = findValueFromPaths(valueMap,
-                mappingConfig.resources().medicationAdministration().paths().dosage().value().paths(), null);
+        String doseValue = values.get(mappingPlan.doseValue);
 
         if (doseValue != null) {
             medicationAdministration.setDosage(new MedicationAdministration.MedicationAdministrationDosageComponent()
                     .setDose(new Quantity()
                             .setValue(Double.parseDouble(doseValue))
-                            .setSystem(mappingConfig.resources().medicationAdministration().paths().dosage().unitSystem().default_())
-                            .setUnit(findValueFromPaths(valueMap,
-                                    mappingConfig.resources().medicationAdministration().paths().dosage().unit().paths(), null))));
+                            .setSystem(mappingPlan.doseUnitSystem)
+                            .setUnit(values.get(mappingPlan.doseUnit))));
         }
 
         // Route mit Konfiguration aus externen Pfaden
-        String routeCode = findValueFromPaths(valueMap,
-                mappingConfig.resources().medicationAdministration().paths().route().code().paths(), null);
+        String routeCode = values.get(mappingPlan.routeCode);
 
         if (routeCode != null) {
             medicationAdministration.getDosage().setRoute(new CodeableConcept().addCoding(new Coding()
                     .setCode(routeCode)
-                    .setDisplay(findValueFromPaths(valueMap,
-                            mappingConfig.resources().medicationAdministration().paths().route().display().paths(), null))
-                    .setSystem(findValueFromPaths(valueMap,
-                            mappingConfig.resources().medicationAdministration().paths().route().system().paths(), null))));
+                    .setDisplay(values.get(mappingPlan.routeDisplay))
+                    .setSystem(values.get(mappingPlan.routeSystem))));
         }
 
         return medicationAdministration;
@@ -249,20 +344,20 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine Observation-Resource basierend auf dem Sektionstyp
      */
-    private Observation createObservation(String inhaltId, Map<String, String> valueMap, String sectionCode) {
+    private Observation createObservation(String inhaltId, EntryValues values, String sectionCode) {
         if ("29762-2".equals(sectionCode)) {
-            return createSocialHistoryObservation(inhaltId, valueMap);
+            return createSocialHistoryObservation(inhaltId, values);
         } else if ("8716-3".equals(sectionCode)) {
-            return createVitalSignObservation(inhaltId, valueMap);
+            return createVitalSignObservation(inhaltId, values);
         } else {
-            return createGenericObservation(inhaltId, valueMap, sectionCode);
+            return createGenericObservation(inhaltId, values, sectionCode);
         }
     }
 
     /**
      * Erstellt eine Observation für Sozialanamnese
      */
-    private Observation createSocialHistoryObservation(String inhaltId, Map<String, String> valueMap) {
+    private Observation createSocialHistoryObservation(String inhaltId, EntryValues values) {
         Observation observation = new Observation();
 
         // ID setzen
@@ -274,67 +369,67 @@ public class CdaToFhirConverter {
         observation.setSubject(new Reference("Patient/3"));
 
         observation.setCode(new CodeableConcept().addCoding(new Coding()
-                .setSystem(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().system().paths(), null))
-                .setDisplay(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().display().paths(), null))
-                .setCode(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().code().code().paths(), null))));
+                .setSystem(values.get(mappingPlan.socialHistorySystem))
+                .setDisplay(values.get(mappingPlan.socialHistoryDisplay))
+                .setCode(values.get(mappingPlan.socialHistoryCode))));
 
 
         Period period = new Period();
-        period.setStartElement(new DateTimeType(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().effectiveDateTime().effectiveDateTimeLow().paths(), null)));
-        period.setEndElement(new DateTimeType(findValueFromPaths(valueMap, mappingConfig.resources().observation().socialHistory().paths().effectiveDateTime().effectiveDateTimeHigh().paths(), null)));
+        period.setStartElement(new DateTimeType(values.get(mappingPlan.socialHistoryLow)));
+        period.setEndElement(new DateTimeType(values.get(mappingPlan.socialHistoryHigh)));
         observation.setEffective(period);
 
 //        // Code
-//        if (valueMap.containsKey("observation.code@code")) {
+//        if (values.containsKey("observation.code@code")) {
 //            CodeableConcept code = new CodeableConcept();
 //            Coding coding = code.addCoding();
-//            coding.setSystem(valueMap.getOrDefault("observation.code@codeSystem",
+//            coding.setSystem(values.getOrDefault("observation.code@codeSystem",
 //                    "http://loinc.org"));
-//            coding.setCode(valueMap.get("observation.code@code"));
-//            coding.setDisplay(valueMap.getOrDefault("observation.code@displayName",
+//            coding.setCode(values.get("observation.code@code"));
+//            coding.setDisplay(values.getOrDefault("observation.code@displayName",
 //                    "Social History Observation"));
 //            observation.setCode(code);
 //        }
 //
 //        // Zeitraum
-//        if (valueMap.containsKey("observation.effectiveTime.low@value") ||
-//                valueMap.containsKey("observation.effectiveTime.high@value")) {
+//        if (values.containsKey("observation.effectiveTime.low@value") ||
+//                values.containsKey("observation.effectiveTime.high@value")) {
 //
 //            Period period = new Period();
 //
-//            if (valueMap.containsKey("observation.effectiveTime.low@value")) {
-//                period.setStartElement(new DateTimeType(valueMap.get("observation.effectiveTime.low@value")));
+//            if (values.containsKey("observation.effectiveTime.low@value")) {
+//                period.setStartElement(new DateTimeType(values.get("observation.effectiveTime.low@value")));
 //            }
 //
-//            if (valueMap.containsKey("observation.effectiveTime.high@value")) {
-//                period.setEndElement(new DateTimeType(valueMap.get("observation.effectiveTime.high@value")));
+//            if (values.containsKey("observation.effectiveTime.high@value")) {
+//                period.setEndElement(new DateTimeType(values.get("observation.effectiveTime.high@value")));
 //            }
 //
 //            observation.setEffective(period);
 //        }
 //
 //        // Wert, falls vorhanden
-//        if (valueMap.containsKey("observation.value@code")) {
+//        if (values.containsKey("observation.value@code")) {
 //            CodeableConcept valueCC = new CodeableConcept();
 //            Coding valueCoding = valueCC.addCoding();
-//            valueCoding.setSystem(valueMap.getOrDefault("observation.value@codeSystem",
+//            valueCoding.setSystem(values.getOrDefault("observation.value@codeSystem",
 //                    "http://terminology.hl7.org/CodeSystem/v3-NullFlavor"));
-//            valueCoding.setCode(valueMap.get("observation.value@code"));
-//            valueCoding.setDisplay(valueMap.getOrDefault("observation.value@displayName", ""));
+//            valueCoding.setCode(values.get("observation.value@code"));
+//            valueCoding.setDisplay(values.getOrDefault("observation.value@displayName", ""));
 //            observation.setValue(valueCC);
-//        } else if (valueMap.containsKey("observation.value@value")) {
+//        } else if (values.containsKey("observation.value@value")) {
 //            // Versuchen, den Wert als Zahl zu interpretieren
 //            try {
-//                Double numericValue = Double.parseDouble(valueMap.get("observation.value@value"));
+//                Double numericValue = Double.parseDouble(values.get("observation.value@value"));
 //                Quantity quantity = new Quantity();
 //                quantity.setValue(numericValue);
-//                if (valueMap.containsKey("observation.value@unit")) {
-//                    quantity.setUnit(valueMap.get("observation.value@unit"));
+//                if (values.containsKey("observation.value@unit")) {
+//                    quantity.setUnit(values.get("observation.value@unit"));
 //                }
 //                observation.setValue(quantity);
 //            } catch (NumberFormatException e) {
 //                // Falls keine Zahl, dann als Text behandeln
-//                observation.setValue(new StringType(valueMap.get("observation.value@value")));
+//                observation.setValue(new StringType(values.get("observation.value@value")));
 //            }
 //        }
 
@@ -344,7 +439,7 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine Observation für Vitalparameter
      */
-    private Observation createVitalSignObservation(String inhaltId, Map<String, String> valueMap) {
+    private Observation createVitalSignObservation(String inhaltId, EntryValues values) {
         Observation observation = new Observation();
 
         // ID setzen
@@ -356,22 +451,22 @@ public class CdaToFhirConverter {
         observation.setSubject(new Reference("Patient/3"));
 
         observation.setCode(new CodeableConcept().addCoding(new Coding()
-                .setCode(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().code().paths(), null))
-                .setDisplay(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().display().paths(), null))
-                .setSystem(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().code().system().paths(), null))));
+                .setCode(values.get(mappingPlan.vitalSignCode))
+                .setDisplay(values.get(mappingPlan.vitalSignDisplay))
+                .setSystem(values.get(mappingPlan.vitalSignSystem))));
 
 
-        if (Objects.equals(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().type().paths(), null), "RTO_PQ_PQ")) {
+        if (Objects.equals(values.get(mappingPlan.vitalSignValueType), "RTO_PQ_PQ")) {
             observation.setValue(new Ratio()
-                    .setNumerator(new Quantity(castSaveToDouble(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().valueRatio().numerator().value().paths(), null))))
-                    .setDenominator(new Quantity(castSaveToDouble(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().valueRatio().denominator().value().paths(), null)))
-                            .setUnit(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().valueRatio().denominator().unit().paths(), null))));
+                    .setNumerator(new Quantity(castSaveToDouble(values.get(mappingPlan.ratioNumeratorValue))))
+                    .setDenominator(new Quantity(castSaveToDouble(values.get(mappingPlan.ratioDenominatorValue)))
+                            .setUnit(values.get(mappingPlan.ratioDenominatorUnit))));
         } else {
             observation.setValue(new Quantity()
-                    .setUnit(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().unit().paths(), null))
-                    .setValue(new BigDecimal(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().value().paths(), null)))
-                    .setSystem(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().system().paths(), null))
-                    .setCode(findValueFromPaths(valueMap, mappingConfig.resources().observation().vitalSigns().paths().value().code().paths(), null)));
+                    .setUnit(values.get(mappingPlan.vitalSignUnit))
+                    .setValue(new BigDecimal(values.get(mappingPlan.vitalSignValue)))
+                    .setSystem(values.get(mappingPlan.vitalSignValueSystem))
+                    .setCode(values.get(mappingPlan.vitalSignValueCode)));
         }
 
         return observation;
@@ -380,7 +475,7 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine generische Observation
      */
-    private Observation createGenericObservation(String inhaltId, Map<String, String> valueMap, String sectionTitle) {
+    private Observation createGenericObservation(String inhaltId, EntryValues values, String sectionTitle) {
         Observation observation = new Observation();
 
         // ID setzen
@@ -390,13 +485,13 @@ public class CdaToFhirConverter {
         observation.setStatus(Observation.ObservationStatus.FINAL);
 
         // Code für die Beobachtung (basierend auf der Sektion, falls kein spezifischer Code vorhanden)
-        if (valueMap.containsKey("observation.code@code")) {
+        if (values.containsKey("observation.code@code")) {
             CodeableConcept code = new CodeableConcept();
             Coding coding = code.addCoding();
-            coding.setSystem(valueMap.getOrDefault("observation.code@codeSystem",
+            coding.setSystem(values.getOrDefault("observation.code@codeSystem",
                     "http://terminology.hl7.org/CodeSystem/observation-category"));
-            coding.setCode(valueMap.get("observation.code@code"));
-            coding.setDisplay(valueMap.getOrDefault("observation.code@displayName", sectionTitle));
+            coding.setCode(values.get("observation.code@code"));
+            coding.setDisplay(values.getOrDefault("observation.code@displayName", sectionTitle));
             observation.setCode(code);
         } else {
             // Fallback-Code basierend auf Sektionsname
@@ -406,42 +501,42 @@ public class CdaToFhirConverter {
         }
 
         // Wert (abhängig vom Typ in den Quelldaten)
-        if (valueMap.containsKey("observation.value@code")) {
+        if (values.containsKey("observation.value@code")) {
             // Konzept-Wert
             CodeableConcept valueCC = new CodeableConcept();
             Coding valueCoding = valueCC.addCoding();
-            valueCoding.setSystem(valueMap.getOrDefault("observation.value@codeSystem",
+            valueCoding.setSystem(values.getOrDefault("observation.value@codeSystem",
                     "http://terminology.hl7.org/CodeSystem/v3-NullFlavor"));
-            valueCoding.setCode(valueMap.get("observation.value@code"));
-            valueCoding.setDisplay(valueMap.getOrDefault("observation.value@displayName", ""));
+            valueCoding.setCode(values.get("observation.value@code"));
+            valueCoding.setDisplay(values.getOrDefault("observation.value@displayName", ""));
             observation.setValue(valueCC);
-        } else if (valueMap.containsKey("observation.value@value")) {
+        } else if (values.containsKey("observation.value@value")) {
             // Versuchen als Zahl zu interpretieren, sonst Text
             try {
-                Double numericValue = Double.parseDouble(valueMap.get("observation.value@value"));
+                Double numericValue = Double.parseDouble(values.get("observation.value@value"));
                 Quantity quantity = new Quantity();
                 quantity.setValue(numericValue);
-                if (valueMap.containsKey("observation.value@unit")) {
-                    quantity.setUnit(valueMap.get("observation.value@unit"));
+                if (values.containsKey("observation.value@unit")) {
+                    quantity.setUnit(values.get("observation.value@unit"));
                 }
                 observation.setValue(quantity);
             } catch (NumberFormatException e) {
-                observation.setValue(new StringType(valueMap.get("observation.value@value")));
+                observation.setValue(new StringType(values.get("observation.value@value")));
             }
         }
 
         // Zeit/Zeitraum
-        if (valueMap.containsKey("observation.effectiveTime@value")) {
-            observation.setEffective(new DateTimeType(valueMap.get("observation.effectiveTime@value")));
-        } else if (valueMap.containsKey("observation.effectiveTime.low@value") ||
-                valueMap.containsKey("observation.effectiveTime.high@value")) {
+        if (values.containsKey("observation.effectiveTime@value")) {
+            observation.setEffective(new DateTimeType(values.get("observation.effectiveTime@value")));
+        } else if (values.containsKey("observation.effectiveTime.low@value") ||
+                values.containsKey("observation.effectiveTime.high@value")) {
 
             Period period = new Period();
-            if (valueMap.containsKey("observation.effectiveTime.low@value")) {
-                period.setStartElement(new DateTimeType(valueMap.get("observation.effectiveTime.low@value")));
+            if (values.containsKey("observation.effectiveTime.low@value")) {
+                period.setStartElement(new DateTimeType(values.get("observation.effectiveTime.low@value")));
             }
-            if (valueMap.containsKey("observation.effectiveTime.high@value")) {
-                period.setEndElement(new DateTimeType(valueMap.get("observation.effectiveTime.high@value")));
+            if (values.containsKey("observation.effectiveTime.high@value")) {
+                period.setEndElement(new DateTimeType(values.get("observation.effectiveTime.high@value")));
             }
             observation.setEffective(period);
         }
@@ -452,7 +547,7 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine AllergyIntolerance-Resource
      */
-    private AllergyIntolerance createAllergyIntolerance(String inhaltId, Map<String, String> valueMap) {
+    private AllergyIntolerance createAllergyIntolerance(String inhaltId, EntryValues values) {
         AllergyIntolerance allergyIntolerance = new AllergyIntolerance();
 
         // ID setzen
@@ -469,8 +564,8 @@ public class CdaToFhirConverter {
                         .setCode("confirmed").setDisplay("Confirmed")));
 
         // Typ (Allergie vs. Intoleranz)
-        if (valueMap.containsKey("observation.code@code")) {
-            String code = valueMap.get("observation.code@code");
+        if (values.containsKey("observation.code@code")) {
+            String code = values.get("observation.code@code");
             if (code.contains("allergy")) {
                 allergyIntolerance.setType(AllergyIntolerance.AllergyIntoleranceType.ALLERGY);
             } else if (code.contains("intolerance")) {
@@ -479,9 +574,9 @@ public class CdaToFhirConverter {
         }
 
         // Kategorie (Medikament, Nahrung, Umwelt)
-        if (valueMap.containsKey("observation.code@code") || valueMap.containsKey("observation.value@code")) {
-            String code = valueMap.getOrDefault("observation.code@code",
-                    valueMap.getOrDefault("observation.value@code", ""));
+        if (values.containsKey("observation.code@code") || values.containsKey("observation.value@code")) {
+            String code = values.getOrDefault("observation.code@code",
+                    values.getOrDefault("observation.value@code", ""));
 
             if (code.contains("drug") || code.contains("medication")) {
                 allergyIntolerance.addCategory(AllergyIntolerance.AllergyIntoleranceCategory.MEDICATION);
@@ -493,20 +588,20 @@ public class CdaToFhirConverter {
         }
 
         // Code für das Allergen
-        if (valueMap.containsKey("observation.value@code")) {
+        if (values.containsKey("observation.value@code")) {
             CodeableConcept allergen = new CodeableConcept();
             Coding allergenCoding = allergen.addCoding();
-            allergenCoding.setSystem(valueMap.getOrDefault("observation.value@codeSystem",
+            allergenCoding.setSystem(values.getOrDefault("observation.value@codeSystem",
                     "http://terminology.hl7.org/CodeSystem/v3-NullFlavor"));
-            allergenCoding.setCode(valueMap.get("observation.value@code"));
-            allergenCoding.setDisplay(valueMap.getOrDefault("observation.value@displayName", ""));
+            allergenCoding.setCode(values.get("observation.value@code"));
+            allergenCoding.setDisplay(values.getOrDefault("observation.value@displayName", ""));
             allergyIntolerance.setCode(allergen);
         }
 
         // Reaktionsdetails, falls vorhanden
-        if (valueMap.containsKey("observation.text()")) {
+        if (values.containsKey("observation.text()")) {
             AllergyIntolerance.AllergyIntoleranceReactionComponent reaction = new AllergyIntolerance.AllergyIntoleranceReactionComponent();
-            reaction.setDescription(valueMap.get("observation.text()"));
+            reaction.setDescription(values.get("observation.text()"));
             allergyIntolerance.addReaction(reaction);
         }
 
@@ -516,7 +611,7 @@ public class CdaToFhirConverter {
     /**
      * Erstellt eine Condition-Resource
      */
-    private Condition createCondition(String inhaltId, Map<String, String> valueMap) {
+    private Condition createCondition(String inhaltId, EntryValues values) {
         Condition condition = new Condition();
 
         // ID setzen
@@ -538,48 +633,48 @@ public class CdaToFhirConverter {
                         .setCode("problem-list-item").setDisplay("Problem List Item")));
 
         // Code für die Kondition
-        if (valueMap.containsKey("act.code@code") || valueMap.containsKey("observation.value@code")) {
+        if (values.containsKey("act.code@code") || values.containsKey("observation.value@code")) {
             CodeableConcept code = new CodeableConcept();
             Coding coding = code.addCoding();
 
-            if (valueMap.containsKey("act.code@code")) {
-                coding.setSystem(valueMap.getOrDefault("act.code@codeSystem",
+            if (values.containsKey("act.code@code")) {
+                coding.setSystem(values.getOrDefault("act.code@codeSystem",
                         "http://terminology.hl7.org/CodeSystem/v3-NullFlavor"));
-                coding.setCode(valueMap.get("act.code@code"));
-                coding.setDisplay(valueMap.getOrDefault("act.code@displayName", ""));
+                coding.setCode(values.get("act.code@code"));
+                coding.setDisplay(values.getOrDefault("act.code@displayName", ""));
             } else {
-                coding.setSystem(valueMap.getOrDefault("observation.value@codeSystem",
+                coding.setSystem(values.getOrDefault("observation.value@codeSystem",
                         "http://terminology.hl7.org/CodeSystem/v3-NullFlavor"));
-                coding.setCode(valueMap.get("observation.value@code"));
-                coding.setDisplay(valueMap.getOrDefault("observation.value@displayName", ""));
+                coding.setCode(values.get("observation.value@code"));
+                coding.setDisplay(values.getOrDefault("observation.value@displayName", ""));
             }
 
             condition.setCode(code);
         }
 
         // Datum der Aufzeichnung
-        if (valueMap.containsKey("act.effectiveTime@value")) {
-            condition.setRecordedDate(new Date(valueMap.get("act.effectiveTime@value")));
-        } else if (valueMap.containsKey("observation.effectiveTime@value")) {
-            condition.setRecordedDate(new Date(valueMap.get("observation.effectiveTime@value")));
+        if (values.containsKey("act.effectiveTime@value")) {
+            condition.setRecordedDate(new Date(values.get("act.effectiveTime@value")));
+        } else if (values.containsKey("observation.effectiveTime@value")) {
+            condition.setRecordedDate(new Date(values.get("observation.effectiveTime@value")));
         }
 
         // Zeitraum
-        if (valueMap.containsKey("act.effectiveTime.low@value") || valueMap.containsKey("act.effectiveTime.high@value") ||
-                valueMap.containsKey("observation.effectiveTime.low@value") || valueMap.containsKey("observation.effectiveTime.high@value")) {
+        if (values.containsKey("act.effectiveTime.low@value") || values.containsKey("act.effectiveTime.high@value") ||
+                values.containsKey("observation.effectiveTime.low@value") || values.containsKey("observation.effectiveTime.high@value")) {
 
             Period period = new Period();
 
-            if (valueMap.containsKey("act.effectiveTime.low@value")) {
-                period.setStartElement(new DateTimeType(valueMap.get("act.effectiveTime.low@value")));
-            } else if (valueMap.containsKey("observation.effectiveTime.low@value")) {
-                period.setStartElement(new DateTimeType(valueMap.get("observation.effectiveTime.low@value")));
+            if (values.containsKey("act.effectiveTime.low@value")) {
+                period.setStartElement(new DateTimeType(values.get("act.effectiveTime.low@value")));
+            } else if (values.containsKey("observation.effectiveTime.low@value")) {
+                period.setStartElement(new DateTimeType(values.get("observation.effectiveTime.low@value")));
             }
 
-            if (valueMap.containsKey("act.effectiveTime.high@value")) {
-                period.setEndElement(new DateTimeType(valueMap.get("act.effectiveTime.high@value")));
-            } else if (valueMap.containsKey("observation.effectiveTime.high@value")) {
-                period.setEndElement(new DateTimeType(valueMap.get("observation.effectiveTime.high@value")));
+            if (values.containsKey("act.effectiveTime.high@value")) {
+                period.setEndElement(new DateTimeType(values.get("act.effectiveTime.high@value")));
+            } else if (values.containsKey("observation.effectiveTime.high@value")) {
+                period.setEndElement(new DateTimeType(values.get("observation.effectiveTime.high@value")));
             }
 
             condition.setOnset(period);
@@ -587,4 +682,36 @@ public class CdaToFhirConverter {
 
         return condition;
     }
-}
\ No newline at end of file
+
+    /**
+     * Wandelt Einträge auf dem {@link ConversionExecutor} parallel um und übergibt die Ressourcen in
+     * Eingabereihenfolge an den Sink. Geschrieben wird immer der älteste ausstehende Eintrag, sobald
+     * {@link ConversionExecutor#window()} Einträge ausstehen.
+     */
+    private final class OrderedConversion {
+        private final Deque<CompletableFuture<EncodedResource>> pending = new ArrayDeque<>();
+        private final int window = conversionExecutor.window();
+        private final ResourceSink sink;
+
+        OrderedConversion(ResourceSink sink) {
+            this.sink = sink;
+        }
+
+        void submit(CdaEntry entry) throws IOException {
+            pending.add(CompletableFuture.supplyAsync(() -> encodeEntry(entry), conversionExecutor.executor()));
+            if (pending.size() >= window) {
+                write(sink, await(pending.poll()));
+            }
+        }
+
+        void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                write(sink, await(pending.poll()));
+            }
+        }
+
+        void cancel() {
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+}
@@ -2,12 +2,29 @@ package lars.ba.own.mapping;
 
 import jakarta.inject.Inject;
 import jakarta.json.Json;
+import jakarta.json.stream.JsonParser;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import lars.ba.common.NdjsonExport;
+import lars.ba.common.NdjsonExports;
+import lars.ba.own.extraction.AuftragStore;
+import lars.ba.own.extraction.StoredAuftrag;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 @Path("/convert")
 public class CdaToFhirResource {
@@ -15,20 +32,100 @@ public class CdaToFhirResource {
     @Inject
     CdaToFhirConverter converter;
 
+    @Inject
+    NdjsonExports ndjsonExports;
+
+    @Inject
+    AuftragStore auftragStore;
+
     @POST
     @Path("/cda-to-fhir")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response convertCdaToFhir(String cdaJson) {
+    public Response convertCdaToFhir(InputStream cdaJson, @QueryParam("_outputFormat") String outputFormat,
+                                     @Context UriInfo uriInfo) {
+        JsonParser entries;
         try {
-            String fhirJson = converter.convertCdaToFhir(cdaJson);
-            return Response.ok(fhirJson).build();
+            entries = converter.openEntries(cdaJson);
         } catch (Exception e) {
             return Response.status(Response.Status.BAD_REQUEST)
                     .entity(Json.createObjectBuilder()
-                            .add("error", e.getMessage())
+                            .add("error", String.valueOf(e.getMessage()))
                             .build())
                     .build();
         }
+
+        if (NdjsonExports.isNdjson(outputFormat)) {
+            // Bulk-Data-Export: die Ressourcen gehen pro Typ in eine Datei, die Antwort ist das Manifest
+            try (entries; NdjsonExport export = ndjsonExports.create()) {
+                converter.convertCdaToFhir(entries, resource -> export.resource(resource.resourceType, resource.json));
+                return Response.ok(export.manifest(uriInfo.getBaseUri(), uriInfo.getRequestUri().toString())).build();
+            } catch (Exception e) {
+                return Response.serverError()
+                        .entity(Json.createObjectBuilder()
+                                .add("error", String.valueOf(e.getMessage()))
+                                .build())
+                        .build();
+            }
+        }
+
+        // Einträge werden während des Schreibens gelesen, der Request-Body liegt nie komplett im Speicher
+        StreamingOutput json = output -> {
+            try (entries) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                converter.convertCdaToFhir(entries, writer);
+                writer.flush();
+            }
+        };
+
+        return Response.ok(json).build();
+    }
+
+    /**
+     * Wandelt einen gespeicherten Auftrag (/extract/xml/async) um, ohne dass der Client das CDA-JSON
+     * noch einmal schicken muss. Antwort wie bei /convert/cda-to-fhir.
+     */
+    @POST
+    @Path("/auftraege/{auftragsId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response convertStored(@PathParam("auftragsId") String auftragsId,
+                                  @QueryParam("_outputFormat") String outputFormat,
+                                  @Context UriInfo uriInfo) {
+        StoredAuftrag auftrag;
+        try {
+            auftrag = auftragStore.open(auftragsId);
+        } catch (IOException e) {
+            return Response.serverError()
+                    .entity(Json.createObjectBuilder()
+                            .add("error", "Auftrag nicht lesbar: " + e.getMessage())
+                            .build())
+                    .build();
+        }
+        if (auftrag == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        if (NdjsonExports.isNdjson(outputFormat)) {
+            try (NdjsonExport export = ndjsonExports.create()) {
+                converter.convertStored(auftrag, resource -> export.resource(resource.resourceType, resource.json));
+                return Response.ok(export.manifest(uriInfo.getBaseUri(), uriInfo.getRequestUri().toString())).build();
+            } catch (Exception e) {
+                return Response.serverError()
+                        .entity(Json.createObjectBuilder()
+                                .add("error", String.valueOf(e.getMessage()))
+                                .build())
+                        .build();
+            }
+        }
+
+        StreamingOutput json = output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            BundleWriter bundle = new BundleWriter(writer);
+            converter.convertStored(auftrag, bundle);
+            bundle.finish();
+            writer.flush();
+        };
+
+        return Response.ok(json).build();
     }
 }
@@ -0,0 +1,46 @@
+package lars.ba.own.mapping;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import lars.ba.common.DaemonThreads;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gemeinsamer, begrenzter Thread-Pool für die Umwandlung der CDA-Einträge in FHIR-Ressourcen.
+ */
+@ApplicationScoped
+public class ConversionExecutor {
+
+    /**
+     * So viele Einträge pro Thread dürfen gleichzeitig unterwegs sein, bevor der Leser wartet.
+     */
+    private static final int ENTRIES_PER_THREAD = 4;
+
+    private final ExecutorService executor;
+    private final int window;
+
+    public ConversionExecutor(@ConfigProperty(name = "cda-conversion.parallelism", defaultValue = "0") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(threads, DaemonThreads.daemonThreads("cda-conversion"));
+        this.window = threads * ENTRIES_PER_THREAD;
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Höchstzahl gleichzeitig umgewandelter Einträge eines Requests.
+     */
+    public int window() {
+        return window;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,19 @@
+package lars.ba.own.mapping;
+
+/**
+ * Eine umgewandelte und bereits kodierte Ressource. Ob sie als Bundle-Eintrag oder als NDJSON-Zeile
+ * geschrieben wird, entscheidet der {@link ResourceSink}.
+ */
+final class EncodedResource {
+
+    final String resourceType;
+    final String fullUrl;
+    /** kompaktes, einzeiliges JSON der Ressource */
+    final String json;
+
+    EncodedResource(String resourceType, String fullUrl, String json) {
+        this.resourceType = resourceType;
+        this.fullUrl = fullUrl;
+        this.json = json;
+    }
+}
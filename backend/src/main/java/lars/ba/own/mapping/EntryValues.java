@@ -0,0 +1,60 @@
+package lars.ba.own.mapping;
+
+/**
+ * Die Werte eines Eintrags, abgelegt in den Slots eines {@link MappingPlan}. Pfade, die das Mapping
+ * nicht verwendet, werden beim Einlesen verworfen.
+ */
+final class EntryValues {
+
+    private final MappingPlan plan;
+    private final String[] values;
+
+    EntryValues(MappingPlan plan) {
+        this.plan = plan;
+        this.values = new String[plan.slotCount()];
+    }
+
+    /**
+     * Übernimmt einen Wert. Wie bei der früheren HashMap gewinnt bei doppeltem key_path der letzte.
+     */
+    void put(String keyPath, String value) {
+        int slot = plan.slot(keyPath);
+        if (slot != MappingPlan.UNMAPPED) {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Übernimmt einen Wert für einen bereits über {@link MappingPlan#slot} aufgelösten Pfad.
+     */
+    void put(int slot, String value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Erster belegter Kandidatenpfad des Feldes, sonst dessen Default.
+     */
+    String get(MappingPlan.Field field) {
+        return plan.resolve(values, field);
+    }
+
+    /**
+     * Zugriff über einen fest verdrahteten Pfad der generischen Builder.
+     */
+    String get(String keyPath) {
+        int slot = plan.slot(keyPath);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Pfad ist nicht im Mapping-Plan: " + keyPath);
+        }
+        return values[slot];
+    }
+
+    boolean containsKey(String keyPath) {
+        return get(keyPath) != null;
+    }
+
+    String getOrDefault(String keyPath, String defaultValue) {
+        String value = get(keyPath);
+        return value != null ? value : defaultValue;
+    }
+}
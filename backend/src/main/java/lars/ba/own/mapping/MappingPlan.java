@@ -0,0 +1,172 @@
+package lars.ba.own.mapping;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Die Pfade aus {@link CdaFhirMappingConfig}, einmalig in feste Slots übersetzt.
+ * <p>
+ * Jeder key_path, der irgendwo im Mapping vorkommt, bekommt einen Slot-Index. Ein FHIR-Zielfeld
+ * ({@link Field}) kennt die Slots seiner Kandidatenpfade in der konfigurierten Reihenfolge. Die Werte
+ * eines Eintrags landen in {@link EntryValues}, einem Array mit einem Platz pro Slot; beim Auflesen
+ * eines Feldes wird nur noch über dessen Slots gelaufen, ohne Config-Proxys und ohne String-Vergleiche.
+ */
+final class MappingPlan {
+
+    /**
+     * Fest verdrahtete Pfade der generischen Builder, die nicht aus der Konfiguration kommen.
+     */
+    private static final List<String> GENERIC_KEYS = List.of(
+            "observation.code@code",
+            "observation.code@codeSystem",
+            "observation.code@displayName",
+            "observation.value@code",
+            "observation.value@codeSystem",
+            "observation.value@displayName",
+            "observation.value@value",
+            "observation.value@unit",
+            "observation.effectiveTime@value",
+            "observation.effectiveTime.low@value",
+            "observation.effectiveTime.high@value",
+            "observation.text()",
+            "act.code@code",
+            "act.code@codeSystem",
+            "act.code@displayName",
+            "act.effectiveTime@value",
+            "act.effectiveTime.low@value",
+            "act.effectiveTime.high@value");
+
+    /**
+     * Ein FHIR-Zielfeld: Slots der Kandidatenpfade und der Wert, wenn keiner davon belegt ist.
+     */
+    static final class Field {
+        private final int[] slots;
+        private final String defaultValue;
+
+        private Field(int[] slots, String defaultValue) {
+            this.slots = slots;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    /**
+     * Slot für key_paths, die das Mapping nicht verwendet
+     */
+    static final int UNMAPPED = -1;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    final String medicationProfile;
+    final String medicationStatus;
+    final Field medicationCode;
+    final Field medicationDisplay;
+    final Field medicationSystem;
+    final Field doseValue;
+    final Field doseUnit;
+    final String doseUnitSystem;
+    final Field routeCode;
+    final Field routeDisplay;
+    final Field routeSystem;
+
+    final Field socialHistoryCode;
+    final Field socialHistoryDisplay;
+    final Field socialHistorySystem;
+    final Field socialHistoryLow;
+    final Field socialHistoryHigh;
+
+    final Field vitalSignCode;
+    final Field vitalSignDisplay;
+    final Field vitalSignSystem;
+    final Field vitalSignValueType;
+    final Field vitalSignValue;
+    final Field vitalSignUnit;
+    final Field vitalSignValueSystem;
+    final Field vitalSignValueCode;
+    final Field ratioNumeratorValue;
+    final Field ratioDenominatorValue;
+    final Field ratioDenominatorUnit;
+
+    private MappingPlan(CdaFhirMappingConfig config) {
+        CdaFhirMappingConfig.MedicationAdministrationMapping medication = config.resources().medicationAdministration();
+        medicationProfile = medication.profile();
+        medicationStatus = medication.status();
+        // Die Defaults werden nur dort übernommen, wo der Converter sie bisher schon verwendet hat
+        medicationCode = field(medication.paths().medication().code().paths(), null);
+        medicationDisplay = field(medication.paths().medication().display().paths(), "");
+        medicationSystem = field(medication.paths().medication().system().paths(),
+                medication.paths().medication().system().default_());
+        doseValue = field(medication.paths().dosage().value().paths(), null);
+        doseUnit = field(medication.paths().dosage().unit().paths(), null);
+        doseUnitSystem = medication.paths().dosage().unitSystem().default_();
+        routeCode = field(medication.paths().route().code().paths(), null);
+        routeDisplay = field(medication.paths().route().display().paths(), null);
+        routeSystem = field(medication.paths().route().system().paths(), null);
+
+        CdaFhirMappingConfig.SocialHistoryPathsMapping socialHistory = config.resources().observation().socialHistory().paths();
+        socialHistoryCode = field(socialHistory.code().code().paths(), null);
+        socialHistoryDisplay = field(socialHistory.code().display().paths(), null);
+        socialHistorySystem = field(socialHistory.code().system().paths(), null);
+        socialHistoryLow = field(socialHistory.effectiveDateTime().effectiveDateTimeLow().paths(), null);
+        socialHistoryHigh = field(socialHistory.effectiveDateTime().effectiveDateTimeHigh().paths(), null);
+
+        CdaFhirMappingConfig.VitalSignPathsMapping vitalSigns = config.resources().observation().vitalSigns().paths();
+        vitalSignCode = field(vitalSigns.code().code().paths(), null);
+        vitalSignDisplay = field(vitalSigns.code().display().paths(), null);
+        vitalSignSystem = field(vitalSigns.code().system().paths(), null);
+        vitalSignValueType = field(vitalSigns.value().type().paths(), null);
+        vitalSignValue = field(vitalSigns.value().value().paths(), null);
+        vitalSignUnit = field(vitalSigns.value().unit().paths(), null);
+        vitalSignValueSystem = field(vitalSigns.value().system().paths(), null);
+        vitalSignValueCode = field(vitalSigns.value().code().paths(), null);
+        ratioNumeratorValue = field(vitalSigns.valueRatio().numerator().value().paths(), null);
+        ratioDenominatorValue = field(vitalSigns.valueRatio().denominator().value().paths(), null);
+        ratioDenominatorUnit = field(vitalSigns.valueRatio().denominator().unit().paths(), null);
+
+        GENERIC_KEYS.forEach(this::register);
+    }
+
+    static MappingPlan compile(CdaFhirMappingConfig config) {
+        return new MappingPlan(config);
+    }
+
+    /**
+     * Slot eines key_path oder -1, wenn das Mapping den Pfad nicht verwendet.
+     */
+    int slot(String keyPath) {
+        Integer slot = slots.get(keyPath);
+        return slot == null ? UNMAPPED : slot;
+    }
+
+    int slotCount() {
+        return slots.size();
+    }
+
+    EntryValues newEntryValues() {
+        return new EntryValues(this);
+    }
+
+    String resolve(String[] values, Field field) {
+        for (int slot : field.slots) {
+            if (values[slot] != null) {
+                return values[slot];
+            }
+        }
+        return field.defaultValue;
+    }
+
+    private Field field(List<String> paths, String defaultValue) {
+        if (paths == null) {
+            return new Field(new int[0], defaultValue);
+        }
+        int[] fieldSlots = new int[paths.size()];
+        for (int i = 0; i < paths.size(); i++) {
+            fieldSlots[i] = register(paths.get(i));
+        }
+        return new Field(fieldSlots, defaultValue);
+    }
+
+    private int register(String keyPath) {
+        return slots.computeIfAbsent(keyPath, key -> slots.size());
+    }
+}
@@ -0,0 +1,11 @@
+package lars.ba.own.mapping;
+
+import java.io.IOException;
+
+/**
+ * Ziel der umgewandelten Ressourcen: ein Bundle ({@link BundleWriter}) oder ein NDJSON-Export.
+ */
+interface ResourceSink {
+
+    void resource(EncodedResource resource) throws IOException;
+}